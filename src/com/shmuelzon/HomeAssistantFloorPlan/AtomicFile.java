@@ -0,0 +1,114 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A file whose new content is written to a temporary file next to it, and
+ * only replaces it once completely written. An interrupted write therefore
+ * never leaves a truncated file behind: the file either has its previous
+ * content or its new one. The new content is flushed to the disk before it
+ * replaces the file, so this also holds after a crash of the system. The
+ * temporary file is deleted when closed without being committed.
+ */
+public class AtomicFile implements Closeable {
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path file;
+    private final Path temporaryFile;
+    private boolean committed;
+
+    public interface Content {
+        void write(OutputStream output) throws IOException;
+    }
+
+    public AtomicFile(Path file) {
+        this.file = file;
+        temporaryFile = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * The file the new content should be written to before calling {@link #commit()}.
+     */
+    public Path getTemporaryFile() {
+        return temporaryFile;
+    }
+
+    /**
+     * Replaces the file with the content written to the temporary file, once
+     * that content is on the disk.
+     */
+    public void commit() throws IOException {
+        // Otherwise, the move may reach the disk before the content does, leaving an empty file after a crash
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        syncDirectory();
+    }
+
+    private void syncDirectory() {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory == null)
+            return;
+        // Persists the move itself
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can't be opened on all platforms, the file system is then trusted to persist the move
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed)
+            Files.deleteIfExists(temporaryFile);
+    }
+
+    /**
+     * Atomically replaces <code>file</code> with what <code>content</code> writes.
+     */
+    public static void write(Path file, Content content) throws IOException {
+        try (AtomicFile atomicFile = new AtomicFile(file)) {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(atomicFile.getTemporaryFile()))) {
+                content.write(output);
+            }
+            atomicFile.commit();
+        }
+    }
+
+    /**
+     * Atomically replaces <code>file</code> with the content of <code>input</code>.
+     */
+    public static void copy(InputStream input, Path file) throws IOException {
+        try (AtomicFile atomicFile = new AtomicFile(file)) {
+            Files.copy(input, atomicFile.getTemporaryFile(), StandardCopyOption.REPLACE_EXISTING);
+            atomicFile.commit();
+        }
+    }
+
+    /**
+     * Atomically replaces <code>file</code> with a copy of <code>source</code>.
+     */
+    public static void copy(Path source, Path file) throws IOException {
+        try (AtomicFile atomicFile = new AtomicFile(file)) {
+            Files.copy(source, atomicFile.getTemporaryFile(), StandardCopyOption.REPLACE_EXISTING);
+            atomicFile.commit();
+        }
+    }
+}
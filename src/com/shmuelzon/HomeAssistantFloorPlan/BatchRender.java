@@ -0,0 +1,67 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import javax.swing.SwingUtilities;
+
+import com.eteks.sweethome3d.io.DefaultUserPreferences;
+import com.eteks.sweethome3d.io.HomeFileRecorder;
+import com.eteks.sweethome3d.model.Home;
+
+
+/**
+ * Renders the floor plan of a home without Sweet Home 3D's user interface,
+ * using the plugin settings saved in the home, e.g. for scheduled renders on
+ * a headless machine:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp SweetHome3D.jar:HomeAssistantFloorPlanPlugin.sh3p \
+ *     com.shmuelzon.HomeAssistantFloorPlan.BatchRender home.sh3d [output directory]
+ * </pre>
+ *
+ * Progress is printed to the standard output, and the process exits with a
+ * non-zero status if rendering fails.
+ */
+public class BatchRender {
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BatchRender <home.sh3d> [output directory]");
+            System.exit(EXIT_USAGE);
+        }
+
+        int exitStatus = 0;
+        try {
+            Home home = new HomeFileRecorder().readHome(args[0]);
+            ResourceBundle resourceBundle = ResourceBundle.getBundle("com.shmuelzon.HomeAssistantFloorPlan.ApplicationPlugin", Locale.getDefault(), BatchRender.class.getClassLoader());
+            Controller[] createdController = new Controller[1];
+            // The controller listens to and updates the home on the EDT, as it does within Sweet Home 3D
+            SwingUtilities.invokeAndWait(() -> createdController[0] = new Controller(home, new DefaultUserPreferences(), resourceBundle));
+            Controller controller = createdController[0];
+            if (args.length > 1)
+                controller.setOutputDirectory(args[1]);
+
+            controller.addPropertyChangeListener(Controller.Property.COMPLETED_RENDERS, ev -> {
+                int completedRenders = ((Number)ev.getNewValue()).intValue();
+                if (completedRenders > 0)
+                    System.out.println(String.format("Rendered %d/%d", completedRenders, controller.getNumberOfTotalRenders()));
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(controller::stop));
+
+            System.out.println(String.format("Rendering %d images of %s to %s", controller.getNumberOfTotalRenders(), args[0], controller.getOutputDirectory()));
+            controller.render();
+            System.out.println("Done");
+        } catch (InterruptedException e) {
+            System.err.println("Rendering process was interrupted");
+            exitStatus = EXIT_FAILURE;
+        } catch (Exception e) {
+            System.err.println("Exception during rendering process:");
+            e.printStackTrace();
+            exitStatus = EXIT_FAILURE;
+        }
+        System.exit(exitStatus);
+    }
+}
@@ -8,10 +8,12 @@ import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.InterruptedException;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -20,6 +22,7 @@ import java.nio.channels.ClosedByInterruptException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -28,19 +31,25 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.TimeZone;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
-import java.nio.file.StandardCopyOption;
 import java.awt.RenderingHints;
 import javax.swing.JOptionPane;
 import java.util.ResourceBundle;
@@ -48,14 +57,15 @@ import javax.swing.SwingUtilities;
 import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
-import javax.media.j3d.Transform3D;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 import javax.vecmath.Point3f; // Added for 3D centroid
-import javax.vecmath.Vector4d;
 
 import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
 import com.eteks.sweethome3d.model.Camera;
+import com.eteks.sweethome3d.model.CollectionListener;
 import com.eteks.sweethome3d.model.Home;
 import com.eteks.sweethome3d.model.HomeFurnitureGroup;
 import com.eteks.sweethome3d.model.HomeLight;
@@ -74,6 +84,8 @@ public class Controller {
     public enum Renderer {YAFARAY, SUNFLOW}
     public enum Quality {HIGH, LOW}
     public enum ImageFormat {PNG, JPEG}
+    public enum IconLayout {SEPARATION, FORCE_DIRECTED}
+    private enum Rebuild {ENTITIES, CAMERA, LIGHTS_GROUPS, POSITIONS}
 
     private static final String TRANSPARENT_IMAGE_NAME = "transparent";
 
@@ -91,6 +103,15 @@ public class Controller {
     private static final String CONTROLLER_USE_EXISTING_RENDERS = "useExistingRenders";
     private static final String CONTROLLER_DAY_TIMESTAMP = "dayTimestamp";
     private static final String CONTROLLER_NIGHT_TIMESTAMP = "nightTimestamp";
+    private static final String CONTROLLER_RENDER_THREADS = "renderThreads";
+    private static final String CONTROLLER_LIGHT_SUPERPOSITION = "lightSuperposition";
+    private static final String CONTROLLER_ICON_LAYOUT = "iconLayout";
+    private static final String CONTROLLER_PROGRESSIVE_PREVIEW = "progressivePreview";
+    private static final int CAMERA_QUIET_PERIOD_MILLIS = 40;
+    private static final int MAX_BASE_PREVIEWS = 4;
+    private static final double[] PROGRESSIVE_PREVIEW_SCALES = {0.25, 0.5, 1};
+    private static final long PREVIEW_ATLAS_MAX_BYTES = 32 * 1024 * 1024;
+    private static final PreviewAssetCache previewAssets = new PreviewAssetCache(PREVIEW_ATLAS_MAX_BYTES);
 
     private Home home;
     private Settings settings;
@@ -100,11 +121,32 @@ public class Controller {
     private List<Entity> otherEntities = new ArrayList<>();
     private List<Entity> otherLevelsEntities = new ArrayList<>();
     private Map<String, List<Entity>> lightsGroups = new HashMap<>();
-    private Vector4d cameraPosition;
-    private Transform3D perspectiveTransform;
+    private final Projection projection = new Projection();
+    private RoomIndex roomIndex;
+    private final Map<Room, Map<String, Double>> roomScreenBounds = new IdentityHashMap<>();
+    private int roomScreenBoundsVersion;
     private PropertyChangeSupport propertyChangeSupport;
     private int numberOfCompletedRenders;
     private AbstractPhotoRenderer photoRenderer;
+    private PreviewRenderer previewRenderer;
+    // Recent base previews, so switching back and forth between the day and night previews doesn't render them again
+    private final Map<List<Object>, BufferedImage> basePreviews = new LinkedHashMap<List<Object>, BufferedImage>(MAX_BASE_PREVIEWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, BufferedImage> eldest) {
+            return size() > MAX_BASE_PREVIEWS;
+        }
+    };
+    private RenderPool renderPool;
+    private RenderCache renderCache;
+    private RenderManifest renderManifest;
+    private String homeDigest;
+    private Map<String, String> pendingRenderKeys = new ConcurrentHashMap<>();
+    private Map<String, Future<String>> floorplanImageHashes = new ConcurrentHashMap<>();
+    private WriteBehindQueue imageWriter;
+    private int renderThreads;
+    private boolean lightSuperposition;
+    private boolean compactEntitySettings;
+    private boolean progressivePreview;
     private int renderWidth;
     private int renderHeight;
     private LightMixingMode lightMixingMode;
@@ -112,6 +154,10 @@ public class Controller {
     private Renderer renderer;
     private Quality quality;
     private ImageFormat imageFormat;
+    private IconLayout iconLayout;
+    private int iconLayoutIterations;
+    private long iconLayoutNanos;
+    private boolean iconLayoutConverged = true;
     private List<Long> renderDateTimes;
     private String outputDirectoryName;
     private String outputRendersDirectoryName;
@@ -124,31 +170,52 @@ public class Controller {
     private long nightTimestamp;
     private Map<String, Double> houseNdcBounds;
     private ResourceBundle resourceBundle;
+    private Map<String, Entity> lightEntitiesByName = new HashMap<>();
+    private Map<HomePieceOfFurniture, Entity> otherEntitiesByPiece = new IdentityHashMap<>();
+    private Set<HomePieceOfFurniture> listenedPieces = Collections.newSetFromMap(new IdentityHashMap<>());
+    private RebuildScheduler<Rebuild> rebuildScheduler = new RebuildScheduler<>(Rebuild.class, CAMERA_QUIET_PERIOD_MILLIS, this::rebuild);
+    // Changes when furniture is added, removed, renamed or moved to another level, so the preview scene is exported again
+    private volatile long sceneVersion;
+    private PropertyChangeListener cameraListener;
+    private CollectionListener<HomePieceOfFurniture> furnitureListener = ev -> {
+        sceneVersion++;
+        rebuildScheduler.request(Rebuild.ENTITIES);
+    };
+    // Visibility isn't tracked, as scenes toggle it while rendering
+    private PropertyChangeListener pieceListener = ev -> {
+        String propertyName = ev.getPropertyName();
+        if (HomePieceOfFurniture.Property.NAME.name().equals(propertyName) ||
+            HomePieceOfFurniture.Property.LEVEL.name().equals(propertyName)) {
+            sceneVersion++;
+            rebuildScheduler.request(Rebuild.ENTITIES);
+        }
+    };
 
 public Controller(Home home, UserPreferences preferences, ResourceBundle resourceBundle) {
         this.home = home;
         this.preferences = preferences;
         settings = new Settings(home);
+        roomIndex = new RoomIndex(home);
+        previewRenderer = new PreviewRenderer(home);
         camera = home.getCamera().clone();
 
         // Listen to the Home model for camera changes
-        home.addPropertyChangeListener("camera", new PropertyChangeListener() {
+        // Camera changes come in a stream while it's being moved, so entities are only repositioned once it settles
+        cameraListener = new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
-                        // Explicitly update the plugin's working camera to the latest from Home
-                        applySelectedCameraToWorkingCamera(); // Make sure this.camera is fresh
-                        repositionEntities(); // This will then use the fresh this.camera
-                    }
-                });
+                rebuildScheduler.requestAfterQuietPeriod(Rebuild.CAMERA);
             }
-        });
+        };
+        home.addPropertyChangeListener("camera", cameraListener);
 
         this.resourceBundle = resourceBundle;
         propertyChangeSupport = new PropertyChangeSupport(this);
         loadDefaultSettings();
-        createHomeAssistantEntities(); // Call the new method
+        migrateEntitySettings();
+        updateHomeAssistantEntities();
+        // Keep the entities up to date with furniture added, removed or renamed while the plugin is open
+        home.addFurnitureListener(furnitureListener);
 
         buildLightsGroups();
         buildScenes();
@@ -163,6 +230,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         renderer = Renderer.valueOf(settings.get(CONTROLLER_RENDERER, Renderer.YAFARAY.name()));
         quality = Quality.valueOf(settings.get(CONTROLLER_QUALITY, Quality.HIGH.name()));
         imageFormat = ImageFormat.valueOf(settings.get(CONTROLLER_IMAGE_FORMAT, ImageFormat.PNG.name()));
+        iconLayout = IconLayout.valueOf(settings.get(CONTROLLER_ICON_LAYOUT, IconLayout.SEPARATION.name()));
         renderDateTimes = settings.getListLong(CONTROLLER_RENDER_TIME, Arrays.asList(camera.getTime()));
         pointOfViewName = settings.get(CONTROLLER_POINT_OF_VIEW, resourceBundle.getString("HomeAssistantFloorPlan.Panel.pointOfView.currentView.text"));
         furnitureNameToCenter = settings.get(CONTROLLER_FURNITURE_TO_CENTER, "");
@@ -172,6 +240,10 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         useExistingRenders = settings.getBoolean(CONTROLLER_USE_EXISTING_RENDERS, true);
         dayTimestamp = settings.getLong(CONTROLLER_DAY_TIMESTAMP, -1L);
         nightTimestamp = settings.getLong(CONTROLLER_NIGHT_TIMESTAMP, -1L);
+        renderThreads = settings.getInteger(CONTROLLER_RENDER_THREADS, 1);
+        lightSuperposition = settings.getBoolean(CONTROLLER_LIGHT_SUPERPOSITION, false);
+        compactEntitySettings = settings.getBoolean(Settings.CONTROLLER_COMPACT_ENTITY_SETTINGS, false);
+        progressivePreview = settings.getBoolean(CONTROLLER_PROGRESSIVE_PREVIEW, true);
     }
 
     public void addPropertyChangeListener(Property property, PropertyChangeListener listener) {
@@ -232,7 +304,10 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             return 0;
 
         for (List<Entity> groupLights : lightsGroups.values()) {
-            numberOfLightRenders += (1 << getNumberOfControllableLights(groupLights)) - 1;
+            if (lightSuperposition)
+                numberOfLightRenders += getNumberOfControllableLights(groupLights);
+            else
+                numberOfLightRenders += (1 << getNumberOfControllableLights(groupLights)) - 1;
         }
         return numberOfLightRenders * scenes.size();
     }
@@ -244,7 +319,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     public void setRenderHeight(int renderHeight) {
         this.renderHeight = renderHeight;
         settings.setInteger(CONTROLLER_RENDER_HEIGHT, renderHeight);
-        repositionEntities();
+        rebuildScheduler.request(Rebuild.POSITIONS);
     }
 
     public int getRenderWidth() {
@@ -254,7 +329,17 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     public void setRenderWidth(int renderWidth) {
         this.renderWidth = renderWidth;
         settings.setInteger(CONTROLLER_RENDER_WIDTH, renderWidth);
-        repositionEntities();
+        rebuildScheduler.request(Rebuild.POSITIONS);
+    }
+
+    public IconLayout getIconLayout() {
+        return iconLayout;
+    }
+
+    public void setIconLayout(IconLayout iconLayout) {
+        this.iconLayout = iconLayout;
+        settings.set(CONTROLLER_ICON_LAYOUT, iconLayout.name());
+        rebuildScheduler.request(Rebuild.POSITIONS);
     }
 
     public int getSensitivity() {
@@ -298,6 +383,42 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         settings.setBoolean(CONTROLLER_USE_EXISTING_RENDERS, useExistingRenders);
     }
 
+    public boolean getLightSuperposition() {
+        return lightSuperposition;
+    }
+
+    public void setLightSuperposition(boolean lightSuperposition) {
+        int oldNumberOfTotaleRenders = getNumberOfTotalRenders();
+        this.lightSuperposition = lightSuperposition;
+        settings.setBoolean(CONTROLLER_LIGHT_SUPERPOSITION, lightSuperposition);
+        propertyChangeSupport.firePropertyChange(Property.NUMBER_OF_RENDERS.name(), oldNumberOfTotaleRenders, getNumberOfTotalRenders());
+    }
+
+    public boolean getCompactEntitySettings() {
+        return compactEntitySettings;
+    }
+
+    public void setCompactEntitySettings(boolean compactEntitySettings) {
+        this.compactEntitySettings = compactEntitySettings;
+        settings.runInBatch(() -> {
+            settings.setBoolean(Settings.CONTROLLER_COMPACT_ENTITY_SETTINGS, compactEntitySettings);
+            migrateEntitySettings();
+            for (List<Entity> entities : Arrays.asList(lightEntities, otherEntities, otherLevelsEntities)) {
+                for (Entity entity : entities)
+                    entity.migrateSettings();
+            }
+        });
+    }
+
+    public boolean getProgressivePreview() {
+        return progressivePreview;
+    }
+
+    public void setProgressivePreview(boolean progressivePreview) {
+        this.progressivePreview = progressivePreview;
+        settings.setBoolean(CONTROLLER_PROGRESSIVE_PREVIEW, progressivePreview);
+    }
+
     public Renderer getRenderer() {
         return renderer;
     }
@@ -316,6 +437,15 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         settings.set(CONTROLLER_QUALITY, quality.name());
     }
 
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    public void setRenderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+        settings.setInteger(CONTROLLER_RENDER_THREADS, renderThreads);
+    }
+
     public ImageFormat getImageFormat() {
         return imageFormat;
     }
@@ -361,13 +491,55 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         settings.set(CONTROLLER_FURNITURE_TO_CENTER, furnitureNameToCenter);
     }
 
+    /**
+     * Returns a number that changes whenever the settings or the home change in
+     * a way that may change the preview.
+     */
+    public long getPreviewStamp() {
+        return settings.getVersion() + rebuildScheduler.getRequestCount();
+    }
 
-    public BufferedImage generatePreviewImage() throws IOException, InterruptedException {
+    /**
+     * Generates the preview in passes of increasing resolution if progressive
+     * previews are enabled, handing each pass to <code>passCompleted</code> as
+     * soon as it's ready, along with the index of the entities drawn on it.
+     * The first pass is always handed over, while the refinement passes are
+     * dropped once the settings or the home change, as they would no longer
+     * match.
+     */
+    public void generateProgressivePreviewImage(BiConsumer<BufferedImage, PreviewHitIndex> passCompleted) throws IOException, InterruptedException {
         // Ensure entities are repositioned to get their latest calculated screen coordinates
         // This is crucial for accurate preview of icon/fan/label placement.
+        rebuildScheduler.flush();
         repositionEntities();
+        long previewStamp = getPreviewStamp();
+        // All passes draw the entities at the positions they have now
+        PreviewHitIndex hitIndex = createPreviewHitIndex();
+
+        double[] scales = progressivePreview ? PROGRESSIVE_PREVIEW_SCALES : new double[] {1};
+        for (int i = 0; i < scales.length; i++) {
+            if (i > 0 && getPreviewStamp() != previewStamp)
+                return;
+            BufferedImage image = renderPreviewImage(scales[i]);
+            if (i > 0 && getPreviewStamp() != previewStamp)
+                return;
+            passCompleted.accept(image, hitIndex);
+        }
+    }
 
-        AbstractPhotoRenderer previewPhotoRenderer = null;
+    /**
+     * Stops the preview being rendered, if any. Its scene is kept for the next preview.
+     */
+    public void stopPreview() {
+        previewRenderer.stop();
+    }
+
+    /**
+     * Renders the preview with the scene rendered at <code>scale</code> times
+     * the render size, and stretched back to it, while entities are drawn at
+     * full resolution, where they're currently positioned.
+     */
+    private BufferedImage renderPreviewImage(double scale) throws IOException, InterruptedException {
         BufferedImage image = new BufferedImage(this.renderWidth, this.renderHeight, BufferedImage.TYPE_INT_RGB);
         
         int originalSkyColor = this.home.getEnvironment().getSkyColor();
@@ -382,22 +554,21 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                 skyWasModified = true;
             }
             
-            Map<Renderer, String> rendererToClassName = new HashMap<Renderer, String>() {{
-                put(Renderer.SUNFLOW, "com.eteks.sweethome3d.j3d.PhotoRenderer");
-                put(Renderer.YAFARAY, "com.eteks.sweethome3d.j3d.YafarayRenderer");
-            }};
-            // Use the currently selected renderer type, but force LOW quality for speed
-            previewPhotoRenderer = AbstractPhotoRenderer.createInstance(
-                rendererToClassName.get(this.renderer),
-                this.home, // Pass the actual home object, rendering its current light state
-                null,
-                AbstractPhotoRenderer.Quality.LOW); // Force LOW quality for speed
-
-            // Render the base floor plan image
-            previewPhotoRenderer.render(image, this.camera, null);
-
-            if (Thread.interrupted()) { // Check if the thread was interrupted during render
-                throw new InterruptedException("Preview rendering interrupted");
+            // Render the base floor plan image, at a lower resolution if requested
+            BufferedImage baseImage = image;
+            if (scale < 1) {
+                baseImage = new BufferedImage(
+                    Math.max(1, (int)Math.round(this.renderWidth * scale)), Math.max(1, (int)Math.round(this.renderHeight * scale)),
+                    BufferedImage.TYPE_INT_RGB);
+            }
+            // Use the currently selected renderer type, previews are always rendered at LOW quality for speed
+            previewRenderer.render(baseImage, this.camera, getRendererClassName(), sceneVersion);
+
+            if (baseImage != image) {
+                Graphics2D g2dScale = image.createGraphics();
+                g2dScale.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2dScale.drawImage(baseImage, 0, 0, this.renderWidth, this.renderHeight, null);
+                g2dScale.dispose();
             }
 
             // --- NEW: Draw entities on top of the base image ---
@@ -406,38 +577,6 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-            // Cache for loaded preview icons to avoid reading from disk repeatedly
-            Map<String, BufferedImage> iconCache = new HashMap<>();
-
-            // Load fan blade images once for efficiency
-            BufferedImage blackFanBlades = null;
-            BufferedImage greyFanBlades = null; // Renamed to fan_blades_grey.png
-            BufferedImage threeBladeBlack = null;
-            BufferedImage threeBladeGrey = null;
-            BufferedImage mdiFanBlack = null;
-            BufferedImage mdiFanGrey = null;
-            try (InputStream isBlack = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/fan_blades_black.png"); // 4 Blade Ceiling Black
-                 InputStream isGrey = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/fan_blades_grey.png")) {
-                if (isBlack != null) blackFanBlades = ImageIO.read(isBlack);
-                if (isGrey != null) greyFanBlades = ImageIO.read(isGrey);
-            } catch (IOException e) {
-                System.err.println("Warning: Could not load fan blade images for preview: " + e.getMessage());
-            }
-            try (InputStream is3BladeBlack = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/3_blade_black.png");
-                 InputStream is3BladeGrey = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/3_blade_grey.png")) {
-                if (is3BladeBlack != null) threeBladeBlack = ImageIO.read(is3BladeBlack);
-                if (is3BladeGrey != null) threeBladeGrey = ImageIO.read(is3BladeGrey);
-            } catch (IOException e) {
-                System.err.println("Warning: Could not load 3-blade fan images for preview: " + e.getMessage());
-            }
-            try (InputStream isMdiFanBlack = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/mdi_fan_black.png");
-                 InputStream isMdiFanGrey = getClass().getResourceAsStream("/com/shmuelzon/HomeAssistantFloorPlan/resources/mdi_fan_grey.png")) {
-                if (isMdiFanBlack != null) mdiFanBlack = ImageIO.read(isMdiFanBlack);
-                if (isMdiFanGrey != null) mdiFanGrey = ImageIO.read(isMdiFanGrey);
-            } catch (IOException e) {
-                System.err.println("Warning: Could not load MDI fan images for preview: " + e.getMessage());
-            }
-
             List<Entity> allEntities = Stream.concat(lightEntities.stream(), otherEntities.stream())
                                            .collect(Collectors.toList());
 
@@ -494,36 +633,25 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                             case "fan":             iconName = "mdi_fan"; break;
                             default:                iconName = "mdi_help-circle"; break;
                         }
-                        BufferedImage iconImage = loadPreviewIcon(iconName, iconCache);
-                        if (iconImage != null) {
-                            // Determine tint color based on domain, matching previous shape colors
-                            Color tintColor;
-                            switch (domain) {
-                                case "light":           tintColor = Color.YELLOW; break;
-                                case "lock":            tintColor = Color.DARK_GRAY; break;
-                                case "switch":
-                                case "input_button":
-                                case "binary_sensor":   tintColor = Color.GREEN; break;
-                                case "camera":          tintColor = Color.RED; break;
-                                case "media_player":    tintColor = Color.MAGENTA; break;
-                                case "fan":             tintColor = Color.CYAN; break; // Distinct color for fan icon
-                                default:                tintColor = Color.BLUE; break;
-                            }
-
-                            // Create a new BufferedImage for tinting
-                            BufferedImage tintedIcon = new BufferedImage(iconImage.getWidth(), iconImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                            Graphics2D g2dTint = tintedIcon.createGraphics();
-                            g2dTint.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                            g2dTint.drawImage(iconImage, 0, 0, null); // Draw original icon
-                            g2dTint.setComposite(java.awt.AlphaComposite.SrcAtop); // Apply tint only where icon pixels are opaque
-                            g2dTint.setColor(tintColor);
-                            g2dTint.fillRect(0, 0, tintedIcon.getWidth(), tintedIcon.getHeight()); // Fill with tint color
-                            g2dTint.dispose();
-
+                        // Determine tint color based on domain, matching previous shape colors
+                        Color tintColor;
+                        switch (domain) {
+                            case "light":           tintColor = Color.YELLOW; break;
+                            case "lock":            tintColor = Color.DARK_GRAY; break;
+                            case "switch":
+                            case "input_button":
+                            case "binary_sensor":   tintColor = Color.GREEN; break;
+                            case "camera":          tintColor = Color.RED; break;
+                            case "media_player":    tintColor = Color.MAGENTA; break;
+                            case "fan":             tintColor = Color.CYAN; break; // Distinct color for fan icon
+                            default:                tintColor = Color.BLUE; break;
+                        }
+                        BufferedImage tintedIcon = previewAssets.getImage("icons/" + iconName + ".png", tintColor, roundedBaseSizePx, roundedBaseSizePx);
+                        if (tintedIcon != null) {
                             // Draw the icon centered
                             int iconX = (int)Math.round(centerX - roundedBaseSizePx / 2.0);
                             int iconY = (int)Math.round(centerY - roundedBaseSizePx / 2.0);
-                            g2d.drawImage(tintedIcon, iconX, iconY, roundedBaseSizePx, roundedBaseSizePx, null);
+                            g2d.drawImage(tintedIcon, iconX, iconY, null);
                         } else {
                             // Fallback to drawing a simple shape if icon is missing
                             g2d.setColor(Color.RED);
@@ -568,29 +696,29 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                         g2d.drawString(text, textX, textY);
                         break;
                     case ICON_AND_ANIMATED_FAN:
-                        BufferedImage fanImageToDraw = null;
+                        String fanImageName = null;
                         switch (entity.getFanColor()) {
                             case FOUR_BLADE_CEILING_BLACK:
-                                fanImageToDraw = blackFanBlades;
+                                fanImageName = "fan_blades_black.png";
                                 break;
                             case FOUR_BLADE_CEILING_WHITE:
-                                fanImageToDraw = greyFanBlades;
+                                fanImageName = "fan_blades_grey.png";
                                 break;
                             case THREE_BLADE_CEILING_BLACK:
-                                fanImageToDraw = threeBladeBlack;
+                                fanImageName = "3_blade_black.png";
                                 break;
                             case THREE_BLADE_CEILING_WHITE:
-                                fanImageToDraw = threeBladeGrey;
+                                fanImageName = "3_blade_grey.png";
                                 break;
                             case FOUR_BLADE_PORTABLE_BLACK:
-                                fanImageToDraw = mdiFanBlack;
+                                fanImageName = "mdi_fan_black.png";
                                 break;
                             case FOUR_BLADE_PORTABLE_WHITE:
-                                fanImageToDraw = mdiFanGrey;
+                                fanImageName = "mdi_fan_grey.png";
                                 break;
                         }
 
-                        if (fanImageToDraw != null) {
+                        if (fanImageName != null) {
                             // Fan size is based on fanWidthPercent/fanHeightPercent, not defaultIconBadgeBaseSizePercent
                             double fanSizePercent; // Use a single variable for square aspect ratio
                             switch (entity.getFanSize()) {
@@ -605,31 +733,22 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                             int fanHeightPx = fanWidthPx; // Height is the same as width to maintain a square aspect ratio
 
                             // Draw fan blades (round center for drawing)
-                            g2d.drawImage(fanImageToDraw, (int)Math.round(centerX - fanWidthPx / 2.0), (int)Math.round(centerY - fanHeightPx / 2.0), fanWidthPx, fanHeightPx, null);
+                            BufferedImage fanImageToDraw = previewAssets.getImage(fanImageName, null, fanWidthPx, fanHeightPx);
+                            if (fanImageToDraw != null)
+                                g2d.drawImage(fanImageToDraw, (int)Math.round(centerX - fanWidthPx / 2.0), (int)Math.round(centerY - fanHeightPx / 2.0), null);
                         }
 
                         // Draw a small icon on top of the fan (optional, but good for visual cue)
-                        BufferedImage fanIconImage = loadPreviewIcon("mdi_fan", iconCache); // Always use mdi_fan icon
-                        if (fanIconImage != null) {
-                            Color tintColor = Color.CYAN; // Consistent color for fan icon
-
-                            BufferedImage tintedFanIcon = new BufferedImage(fanIconImage.getWidth(), fanIconImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                            Graphics2D g2dTintFan = tintedFanIcon.createGraphics();
-                            g2dTintFan.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                            g2dTintFan.drawImage(fanIconImage, 0, 0, null);
-                            g2dTintFan.setComposite(java.awt.AlphaComposite.SrcAtop);
-                            g2dTintFan.setColor(tintColor);
-                            g2dTintFan.fillRect(0, 0, tintedFanIcon.getWidth(), tintedFanIcon.getHeight());
-                            g2dTintFan.dispose();
-
-                            int iconOnFanSize = (int) Math.ceil(rawBaseSizePx * 0.7); // Make icon slightly larger on fan
+                        int iconOnFanSize = (int) Math.ceil(rawBaseSizePx * 0.7); // Make icon slightly larger on fan
+                        BufferedImage tintedFanIcon = previewAssets.getImage("icons/mdi_fan.png", Color.CYAN, iconOnFanSize, iconOnFanSize); // Always use mdi_fan icon, in a consistent color
+                        if (tintedFanIcon != null) {
                             int iconX = (int)Math.round(centerX - iconOnFanSize / 2.0);
                             int iconY = (int)Math.round(centerY - iconOnFanSize / 2.0);
-                            g2d.drawImage(tintedFanIcon, iconX, iconY, iconOnFanSize, iconOnFanSize, null);
+                            g2d.drawImage(tintedFanIcon, iconX, iconY, null);
                         } else {
                             g2d.setColor(Color.ORANGE); // Fallback if fan icon is missing
-                            int iconOnFanSize = (int) Math.ceil(rawBaseSizePx * 0.5); // Smaller icon, round up
-                            g2d.fillOval((int)Math.round(centerX - iconOnFanSize / 2.0), (int)Math.round(centerY - iconOnFanSize / 2.0), iconOnFanSize, iconOnFanSize);
+                            int fallbackSize = (int) Math.ceil(rawBaseSizePx * 0.5); // Smaller icon, round up
+                            g2d.fillOval((int)Math.round(centerX - fallbackSize / 2.0), (int)Math.round(centerY - fallbackSize / 2.0), fallbackSize, fallbackSize);
                         }
                         break; // Moved break outside of the else block
                 }
@@ -641,9 +760,6 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             if (skyWasModified) {
                 this.home.getEnvironment().setSkyColor(originalSkyColor);
             }
-            if (previewPhotoRenderer != null) {
-                previewPhotoRenderer.dispose();
-            }
         }
     }
 
@@ -656,6 +772,16 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
      * @throws InterruptedException If the rendering thread is interrupted.
      */
     public BufferedImage generateBaseImagePreview(long time) throws IOException, InterruptedException {
+        rebuildScheduler.flush();
+        List<Object> previewKey = Arrays.asList(time,
+            camera.getX(), camera.getY(), camera.getZ(), camera.getYaw(), camera.getPitch(), camera.getFieldOfView(),
+            renderWidth, renderHeight, renderer, getPreviewStamp(), sceneVersion);
+        synchronized (basePreviews) {
+            BufferedImage basePreview = basePreviews.get(previewKey);
+            if (basePreview != null)
+                return basePreview;
+        }
+
         // 1. Save current state
         long originalTime = this.camera.getTime();
         int originalSkyColor = this.home.getEnvironment().getSkyColor();
@@ -673,7 +799,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         }
         turnOffLightsFromOtherLevels();
 
-        // 4. Render the scene (renderScene uses this.camera and current light state)
+        // 4. Render the scene with the preview renderer (uses this.camera and current light state)
         BufferedImage image;
         try {
             // Check if sky is black and temporarily change it for a better preview
@@ -682,7 +808,8 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                 this.home.getEnvironment().setSkyColor(new Color(170, 210, 255).getRGB());
                 skyWasModified = true;
             }
-            image = renderScene();
+            image = new BufferedImage(renderWidth, renderHeight, BufferedImage.TYPE_INT_RGB);
+            previewRenderer.render(image, this.camera, getRendererClassName(), sceneVersion);
         } finally {
             // 5. Restore original state
             if (skyWasModified) {
@@ -691,6 +818,9 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             restoreEntityConfiguration(); // This restores light power to initial values.
             this.camera.setTime(originalTime);
         }
+        synchronized (basePreviews) {
+            basePreviews.put(previewKey, image);
+        }
         return image;
     }
 
@@ -724,31 +854,13 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     }
 
     /**
-     * Loads a preview icon from resources, caching it for subsequent use.
-     * Icons are expected to be in /com/shmuelzon/HomeAssistantFloorPlan/resources/icons/
-     * @param iconName The base name of the icon file (e.g., "mdi_lightbulb").
-     * @param iconCache A map to store and retrieve cached icons.
-     * @return The loaded BufferedImage, or null if loading fails.
+     * Creates the index of the entities drawn on the preview, as they're
+     * currently positioned, for looking up the entities at a point of it.
      */
-    private BufferedImage loadPreviewIcon(String iconName, Map<String, BufferedImage> iconCache) {
-        if (iconCache.containsKey(iconName)) {
-            return iconCache.get(iconName);
-        }
-        String resourcePath = "/com/shmuelzon/HomeAssistantFloorPlan/resources/icons/" + iconName + ".png";
-        try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
-            BufferedImage icon = ImageIO.read(is);
-            iconCache.put(iconName, icon);
-            return icon;
-        } catch (IOException | IllegalArgumentException e) {
-            System.err.println("Warning: Could not load preview icon from " + resourcePath + ": " + e.getMessage());
-            return null;
-        }
-    }
-
-    public List<Entity> getEntitiesAtPoint(java.awt.Point p) {
-        List<Entity> foundEntities = new ArrayList<>();
+    public PreviewHitIndex createPreviewHitIndex() {
         List<Entity> allEntities = Stream.concat(lightEntities.stream(), otherEntities.stream())
                                        .collect(Collectors.toList());
+        List<java.awt.Rectangle> boxes = new ArrayList<>(allEntities.size());
 
         for (Entity entity : allEntities) {
             double rawCenterX = entity.getPosition().x / 100.0 * renderWidth;
@@ -792,12 +904,9 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             int paddedDrawWidth = drawWidth + (2 * padding);
             int paddedDrawHeight = drawHeight + (2 * padding);
 
-            if (p.x >= paddedDrawX && p.x < paddedDrawX + paddedDrawWidth &&
-                p.y >= paddedDrawY && p.y < paddedDrawY + paddedDrawHeight) {
-                foundEntities.add(entity);
-            }
+            boxes.add(new java.awt.Rectangle(paddedDrawX, paddedDrawY, paddedDrawWidth, paddedDrawHeight));
         }
-        return foundEntities;
+        return new PreviewHitIndex(renderWidth, renderHeight, allEntities, boxes);
     }
 
     public Map<String, Double> getRoomBoundingBoxPercent(Entity entity) {
@@ -823,8 +932,28 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
              System.err.println("Warning: Room '" + entityRoom.getName() + "' associated with entity '" + entity.getName() + "' has no level. Cannot calculate Room Size bounds.");
             return null;
         }
-        
-        return calculateRoom2DBounds(entityRoom, roomLevel);
+
+        // The bounds only depend on the room, the camera and the render size, so they are
+        // calculated once until one of those changes
+        synchronized (roomScreenBounds) {
+            if (roomScreenBoundsVersion != roomIndex.getVersion()) {
+                roomScreenBounds.clear();
+                roomScreenBoundsVersion = roomIndex.getVersion();
+            }
+            if (roomScreenBounds.containsKey(entityRoom))
+                return roomScreenBounds.get(entityRoom);
+            Map<String, Double> bounds = calculateRoom2DBounds(entityRoom, roomLevel);
+            if (bounds != null)
+                bounds = Collections.unmodifiableMap(bounds);
+            roomScreenBounds.put(entityRoom, bounds);
+            return bounds;
+        }
+    }
+
+    private void clearRoomScreenBounds() {
+        synchronized (roomScreenBounds) {
+            roomScreenBounds.clear();
+        }
     }
 
     private Map<String, Double> calculateRoom2DBounds(Room room, 
@@ -863,17 +992,20 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         float projectionBaseElevation = roomFloorElevation + (actualRoomHeight * 0.5f); 
         float projectionCeilingElevation = roomFloorElevation + actualRoomHeight; // Ceiling remains the same
 
-        List<Vector4d> cornerPointsToProject = new ArrayList<>();
+        boolean projectCeiling = room.isCeilingVisible() && actualRoomHeight > 0; // Only add if room has height and visible ceiling
+        int cornerCount = roomWorldPoints.size() * (projectCeiling ? 2 : 1);
+        double[] cornerPointsToProject = new double[cornerCount * 3];
+        int cornerIndex = 0;
         // Add floor points: p[0] is X, p[1] is Z (depth). Y is vertical.
-        for (float[] p2d : roomWorldPoints) { // Use the 2D points of the room
-            cornerPointsToProject.add(new Vector4d(p2d[0], projectionBaseElevation, p2d[1], 1.0));
-        }
+        for (float[] p2d : roomWorldPoints) // Use the 2D points of the room
+            cornerIndex = putPoint(cornerPointsToProject, cornerIndex, p2d[0], projectionBaseElevation, p2d[1]);
         // Add ceiling points
-        if (room.isCeilingVisible() && actualRoomHeight > 0) { // Only add if room has height and visible ceiling
-            for (float[] p2d : roomWorldPoints) {
-                cornerPointsToProject.add(new Vector4d(p2d[0], projectionCeilingElevation, p2d[1], 1.0));
-            }
+        if (projectCeiling) {
+            for (float[] p2d : roomWorldPoints)
+                cornerIndex = putPoint(cornerPointsToProject, cornerIndex, p2d[0], projectionCeilingElevation, p2d[1]);
         }
+        double[] cornerNdc = new double[cornerCount * 2];
+        projection.project(cornerPointsToProject, cornerCount, cornerNdc);
 
         // Calculate house's screen footprint percentages based on its (clamped) NDC bounds
         // For X-axis: (ndc * 0.5 + 0.5)
@@ -887,20 +1019,16 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         double houseScreenHeightPct = houseScreenBottomPct - houseScreenTopPct;
 
 
-        for (Vector4d worldPos : cornerPointsToProject) {
-            Vector4d viewPos = new Vector4d(worldPos);
-            // cameraPosition is (camX, camZ_depth, camY_vertical, 0)
-            viewPos.sub(cameraPosition); 
-            perspectiveTransform.transform(viewPos);
+        for (int i = 0; i < cornerCount; i++) {
+            double ndcX = cornerNdc[i * 2];
+            double ndcY = cornerNdc[i * 2 + 1];
+            if (Double.isNaN(ndcX)) continue; // Avoid division by zero
 
-            if (viewPos.w == 0) continue; // Avoid division by zero
-            viewPos.scale(1.0 / viewPos.w); // Perspective divide (NDC)
-            
             // Room corner's normalized position (0 to 1) within the house's (clamped) NDC span
-            // Also clamp the viewPos.x/y to be within the house's NDC bounds before normalization
+            // Also clamp the NDC x/y to be within the house's NDC bounds before normalization
             // to prevent extreme values if a room corner projects outside the house bounds.
-            double clampedViewPosX = Math.max(hNdcMinX, Math.min(hNdcMaxX, viewPos.x));
-            double clampedViewPosY = Math.max(hNdcMinY, Math.min(hNdcMaxY, viewPos.y));
+            double clampedViewPosX = Math.max(hNdcMinX, Math.min(hNdcMaxX, ndcX));
+            double clampedViewPosY = Math.max(hNdcMinY, Math.min(hNdcMaxY, ndcY));
 
             double roomCornerXNormInHouse = (hNdcMaxX == hNdcMinX) ? 0.5 : (clampedViewPosX - hNdcMinX) / (hNdcMaxX - hNdcMinX);
             double roomCornerYNormInHouse = (hNdcMaxY == hNdcMinY) ? 0.5 : (clampedViewPosY - hNdcMinY) / (hNdcMaxY - hNdcMinY);
@@ -986,24 +1114,62 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     }
 
     public void stop() {
+        RenderPool pool = renderPool;
+        if (pool != null)
+            pool.stop();
         if (photoRenderer != null) {
             photoRenderer.stop();
             photoRenderer = null;
         }
     }
 
+    /**
+     * Stops listening to the home. Called once the plugin's dialog is closed.
+     */
+    public void dispose() {
+        rebuildScheduler.cancel();
+        previewRenderer.dispose();
+        synchronized (basePreviews) {
+            basePreviews.clear();
+        }
+        home.removePropertyChangeListener("camera", cameraListener);
+        home.removeFurnitureListener(furnitureListener);
+        for (HomePieceOfFurniture piece : listenedPieces)
+            piece.removePropertyChangeListener(pieceListener);
+        listenedPieces.clear();
+        roomIndex.dispose();
+    }
+
     public boolean isProjectEmpty() {
         return home == null || home.getFurniture().isEmpty();
     }
 
     public void render() throws IOException, InterruptedException {
-        propertyChangeSupport.firePropertyChange(Property.COMPLETED_RENDERS.name(), numberOfCompletedRenders, 0);
-        numberOfCompletedRenders = 0;
+        synchronized (this) {
+            propertyChangeSupport.firePropertyChange(Property.COMPLETED_RENDERS.name(), numberOfCompletedRenders, 0);
+            numberOfCompletedRenders = 0;
+        }
+        rebuildScheduler.flush(); // Apply any pending entity, group or camera change
         repositionEntities(); // Re-calculate positions based on current settings, including overlap exclusion
+        if (!iconLayoutConverged)
+            System.err.println(String.format("Warning: icon layout did not converge after %d iterations (%.1fms)",
+                iconLayoutIterations, iconLayoutNanos / 1e6));
 
+        boolean completed = false;
         try {
             Files.createDirectories(Paths.get(outputRendersDirectoryName));
             Files.createDirectories(Paths.get(outputFloorplanDirectoryName));
+            renderCache = new RenderCache(Paths.get(outputRendersDirectoryName));
+            renderManifest = new RenderManifest(Paths.get(outputRendersDirectoryName));
+            // Images are encoded and written while the next ones are rendered
+            int imageWriterThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            imageWriter = new WriteBehindQueue(imageWriterThreads, imageWriterThreads * 2);
+            if (renderManifest.isResuming())
+                System.err.println("Resuming previous render, " + renderManifest.getCompletedCount() + " renders were already completed");
+            floorplanImageHashes.clear();
+            homeDigest = RenderCache.digestHome(home);
+            // Levels may have been modified since the room bounds were calculated
+            clearRoomScreenBounds();
 
             // Perform overlap check for ROOM_SIZE entities and print warnings
             List<String> overlapErrors = checkForOverlappingRoomSizeEntities();
@@ -1018,60 +1184,44 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             copyStaticAssetsToFloorplanDirectory(); // Call to copy fan GIFs
    
             generateTransparentImage(outputFloorplanDirectoryName + File.separator + TRANSPARENT_IMAGE_NAME + ".png");
-            String yaml = String.format(
-                "type: picture-elements\n" +
-                "image: /local/floorplan/%s.png?version=%s\n" +
-                "elements:\n", TRANSPARENT_IMAGE_NAME, renderHash(TRANSPARENT_IMAGE_NAME, true));
-
-            turnOffLightsFromOtherLevels();
-            for (Scene scene : scenes) {
-                Files.createDirectories(Paths.get(outputRendersDirectoryName + File.separator + scene.getName()));
-                Files.createDirectories(Paths.get(outputFloorplanDirectoryName + File.separator + scene.getName()));
-                final Scene currentSceneForEdt = scene;
-                final long correctedTime = getUtcCorrectedTimestamp(scene.getRenderingTime());
-                try {
-                    SwingUtilities.invokeAndWait(() -> {
-                        camera.setTime(correctedTime);
-                        currentSceneForEdt.prepareForVisibility();
-                    });
-                } catch (InvocationTargetException e) {
-                    throw new RuntimeException("Error preparing scene on EDT", e.getCause() != null ? e.getCause() : e);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt(); // Re-assert interrupt status
-                    throw e; // Propagate InterruptedException
-                }
 
-                String baseImageName = "base";
-                if (!scene.getName().isEmpty())
-                    baseImageName = scene.getName() + File.separator + baseImageName;
-                BufferedImage baseImage = generateBaseRender(scene, baseImageName);
-                yaml += generateLightYaml(scene, Collections.emptyList(), null, baseImageName, false);
-
-                for (String group : lightsGroups.keySet())
-                    yaml += generateGroupRenders(scene, group, baseImage);
+            if (renderThreads > 1)
+                submitRenderJobs();
+
+            // The YAML is only swapped in once all the images it references are in place, so Home Assistant
+            // never serves a partial floor plan
+            try (AtomicFile yamlFile = new AtomicFile(Paths.get(outputFloorplanDirectoryName + File.separator + "floorplan.yaml"))) {
+                try (YamlWriter yaml = new YamlWriter(Files.newBufferedWriter(yamlFile.getTemporaryFile()))) {
+                    yaml.format(
+                        "type: picture-elements\n" +
+                        "image: /local/floorplan/%s.png?version=%s\n" +
+                        "elements:\n", TRANSPARENT_IMAGE_NAME, renderHash(TRANSPARENT_IMAGE_NAME, true));
+                    writeScenesYaml(yaml);
+                    writeEntitiesYaml(yaml);
+
+                    // Append global styles for animations, etc.
+                    yaml.write("\n" +
+                        "style: |-\n" + // Using |- for multi-line string
+                        "  @keyframes my-blink {\n" +
+                        "    0% { opacity: 0; }\n" +
+                        "    50% { opacity: 1; }\n" + // Assuming 100% opacity is 1
+                        "    100% { opacity: 0; }\n" +
+                        "  }\n" +
+                        "  @keyframes spin {\n" + // Add translateZ(0) to force hardware acceleration during animation
+                        "    from { transform: translate(-50%, -50%) rotate(0deg) translateZ(0); }\n" + // Start at 0 degrees
+                        "    to   { transform: translate(-50%, -50%) rotate(-360deg) translateZ(0); }\n" + // Rotate to -360 degrees for counter-clockwise
+                        "  }\n");
+
+                    // Append grid_options
+                    yaml.write("\ngrid_options:\n" +
+                               "  columns: full\n");
+                }
+                imageWriter.awaitAll();
+                yamlFile.commit();
             }
-
-            yaml += generateEntitiesYaml();
-
-            // Append global styles for animations, etc.
-            String globalStyles = "\n" +
-                "style: |-\n" + // Using |- for multi-line string
-                "  @keyframes my-blink {\n" +
-                "    0% { opacity: 0; }\n" +
-                "    50% { opacity: 1; }\n" + // Assuming 100% opacity is 1
-                "    100% { opacity: 0; }\n" +
-                "  }\n" +
-                "  @keyframes spin {\n" + // Add translateZ(0) to force hardware acceleration during animation
-                "    from { transform: translate(-50%, -50%) rotate(0deg) translateZ(0); }\n" + // Start at 0 degrees
-                "    to   { transform: translate(-50%, -50%) rotate(-360deg) translateZ(0); }\n" + // Rotate to -360 degrees for counter-clockwise
-                "  }\n";
-            yaml += globalStyles;
-
-            // Append grid_options
-            yaml += "\ngrid_options:\n" +
-                    "  columns: full\n";
-
-            Files.write(Paths.get(outputFloorplanDirectoryName + File.separator + "floorplan.yaml"), yaml.getBytes());
+            completed = true;
+            System.err.println(String.format("Model rebuilds: %d requested, %d run, %d saved by coalescing",
+                rebuildScheduler.getRequestCount(), rebuildScheduler.getRebuildCount(), rebuildScheduler.getSavedRebuildCount()));
         } catch (InterruptedIOException e) {
             throw new InterruptedException();
         } catch (ClosedByInterruptException e) {
@@ -1082,6 +1232,29 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             // e.printStackTrace(); // Consider if this is needed or if the caller handles logging.
             throw e;
         } finally {
+            if (renderPool != null) {
+                renderPool.shutdown();
+                renderPool = null;
+            }
+            if (imageWriter != null) {
+                imageWriter.shutdownNow();
+                imageWriter = null;
+            }
+            if (renderCache != null) {
+                try {
+                    renderCache.flush();
+                } catch (IOException e) {
+                    System.err.println("Could not write render cache index: " + e.getMessage());
+                }
+            }
+            if (renderManifest != null) {
+                try {
+                    renderManifest.close(completed);
+                } catch (IOException e) {
+                    System.err.println("Could not write render manifest: " + e.getMessage());
+                }
+                renderManifest = null;
+            }
             try {
                 SwingUtilities.invokeAndWait(() -> {
                     restoreEntityConfiguration();
@@ -1096,6 +1269,133 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         }
     }
 
+    private void writeScenesYaml(YamlWriter yaml) throws IOException, InterruptedException {
+        turnOffLightsFromOtherLevels();
+        for (Scene scene : scenes) {
+            Files.createDirectories(Paths.get(outputRendersDirectoryName + File.separator + scene.getName()));
+            Files.createDirectories(Paths.get(outputFloorplanDirectoryName + File.separator + scene.getName()));
+            final Scene currentSceneForEdt = scene;
+            final long correctedTime = getUtcCorrectedTimestamp(scene.getRenderingTime());
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    camera.setTime(correctedTime);
+                    currentSceneForEdt.prepareForVisibility();
+                });
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Error preparing scene on EDT", e.getCause() != null ? e.getCause() : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Re-assert interrupt status
+                throw e; // Propagate InterruptedException
+            }
+
+            String baseImageName = getBaseImageName(scene);
+            BufferedImage baseImage = generateBaseRender(scene, baseImageName);
+            writeLightYaml(yaml, scene, Collections.emptyList(), null, baseImageName, false);
+
+            for (String group : lightsGroups.keySet())
+                writeGroupRenders(yaml, scene, group, baseImage);
+            yaml.flush();
+        }
+    }
+
+    private void submitRenderJobs() throws IOException, InterruptedException {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                renderPool = new RenderPool(home, lightEntities, otherLevelsEntities, getRendererClassName(),
+                    getPhotoRendererQuality(), renderWidth, renderHeight, renderThreads, this::pooledRenderCompleted);
+            });
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Error creating render pool on EDT", e.getCause() != null ? e.getCause() : e);
+        }
+
+        for (Scene scene : scenes) {
+            Files.createDirectories(Paths.get(outputRendersDirectoryName + File.separator + scene.getName()));
+            Camera sceneCamera = camera.clone();
+            sceneCamera.setTime(getUtcCorrectedTimestamp(scene.getRenderingTime()));
+
+            submitRenderJob(scene, sceneCamera, new ArrayList<>(), getBaseImageName(scene));
+            for (List<Entity> groupLights : lightsGroups.values()) {
+                for (List<Entity> onLights : getRenderedCombinations(groupLights))
+                    submitRenderJob(scene, sceneCamera, onLights, getLightsImageName(scene, onLights));
+            }
+        }
+    }
+
+    private void submitRenderJob(Scene scene, Camera sceneCamera, List<Entity> onLights, String name) throws IOException {
+        String fileName = outputRendersDirectoryName + File.separator + name + ".png";
+        String renderKey = getRenderKey(scene, onLights);
+        if (restoreRender(name, renderKey, Paths.get(fileName)))
+            return;
+        pendingRenderKeys.put(name, renderKey);
+        renderManifest.started(name, renderKey);
+        renderPool.submit(name, scene, sceneCamera, onLights);
+    }
+
+    private void pooledRenderCompleted(String name, BufferedImage image) throws IOException, InterruptedException {
+        String renderKey = pendingRenderKeys.remove(name);
+        if (renderKey != null)
+            writeRender(name, renderKey, image);
+        incrementCompletedRenders();
+    }
+
+    /**
+     * Queues writing the render <code>name</code> to the renders directory and
+     * recording it in the render cache and manifest once written.
+     */
+    private void writeRender(String name, String renderKey, BufferedImage image) throws InterruptedException {
+        Path imageFile = Paths.get(outputRendersDirectoryName + File.separator + name + ".png");
+        RenderCache cache = renderCache;
+        RenderManifest manifest = renderManifest;
+        imageWriter.submit(() -> {
+            // Digested while written, so the manifest doesn't need to read the image back
+            MessageDigest digest = RenderManifest.createDigest();
+            AtomicFile.write(imageFile, output -> ImageIO.write(image, "png", new DigestOutputStream(output, digest)));
+            cache.put(renderKey, imageFile);
+            manifest.completed(name, renderKey, digest);
+            return null;
+        });
+    }
+
+    /**
+     * Returns whether the render <code>name</code> doesn't need to be redone, either
+     * because it was completed by a previous run that was stopped, or because an
+     * identical render exists and existing renders should be used.
+     */
+    private boolean restoreRender(String name, String renderKey, Path file) throws IOException {
+        if (renderManifest.isCompleted(name, renderKey, file))
+            return true;
+        if (!useExistingRenders || !renderCache.restore(renderKey, file))
+            return false;
+        renderManifest.completed(name, renderKey, file);
+        return true;
+    }
+
+    /**
+     * Returns a digest of all the inputs that affect the render of <code>scene</code>
+     * with <code>onLights</code> turned on, on top of the static home digest.
+     */
+    private String getRenderKey(Scene scene, List<Entity> onLights) {
+        RenderCache.KeyBuilder key = new RenderCache.KeyBuilder()
+            .add(homeDigest)
+            .add(camera)
+            .add(getUtcCorrectedTimestamp(scene.getRenderingTime()))
+            .add(renderer.name())
+            .add(quality.name())
+            .add(renderWidth)
+            .add(renderHeight);
+        for (Entity light : lightEntities)
+            key.add(light.getName()).add(onLights.contains(light) || light.getAlwaysOn());
+        for (Entity entity : otherLevelsEntities)
+            key.add(entity.getName()).add(false);
+        for (Entity entity : scene.getEntitiesToShowHide())
+            key.add(entity.getName()).add(scene.isEntityShown(entity));
+        return key.build();
+    }
+
+    private synchronized void incrementCompletedRenders() {
+        propertyChangeSupport.firePropertyChange(Property.COMPLETED_RENDERS.name(), numberOfCompletedRenders, ++numberOfCompletedRenders);
+    }
+
     private void copyStaticAssetsToFloorplanDirectory() {
         String[] staticAssetFiles = {
             "fan_blades_black.png",
@@ -1118,7 +1418,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                     continue;
                 }
                 Path destinationFile = destinationDir.resolve(fileName);
-                Files.copy(is, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+                AtomicFile.copy(is, destinationFile);
                 // System.out.println("Copied static asset " + fileName + " to " + destinationFile); // Optional: for debugging
             } catch (IOException e) {
                 System.err.println("Error copying static asset resource " + fileName + ": " + e.getMessage());
@@ -1133,24 +1433,41 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
 
     // Helper to add common property change listeners to an entity
     private void addCommonPropertyChangeListeners(Entity entity) {
-        entity.addPropertyChangeListener(Entity.Property.POSITION, ev -> repositionEntities());
-        PropertyChangeListener buildAndUpdateCountsListener = ev -> {
-            buildLightsGroups();
-            buildScenes();
-            propertyChangeSupport.firePropertyChange(Property.NUMBER_OF_RENDERS.name(), null, getNumberOfTotalRenders());
-        };
+        // Changes are coalesced, as a single action (e.g. resetting an entity) may fire several of them
+        entity.addPropertyChangeListener(Entity.Property.POSITION, ev -> rebuildScheduler.request(Rebuild.POSITIONS));
+        PropertyChangeListener buildAndUpdateCountsListener = ev -> rebuildScheduler.request(Rebuild.LIGHTS_GROUPS);
         entity.addPropertyChangeListener(Entity.Property.ALWAYS_ON, buildAndUpdateCountsListener);
         entity.addPropertyChangeListener(Entity.Property.FURNITURE_DISPLAY_CONDITION, buildAndUpdateCountsListener);
         entity.addPropertyChangeListener(Entity.Property.IS_RGB, buildAndUpdateCountsListener);
     }
 
+    /**
+     * Migrates the settings of all the home's entities to the storage format currently selected.
+     */
+    private void migrateEntitySettings() {
+        Set<String> keys = new HashSet<>();
+        collectEntitySettingsKeys(home.getFurniture(), keys);
+        EntitySettings.migrate(settings, keys);
+    }
+
+    private void collectEntitySettingsKeys(List<HomePieceOfFurniture> furniture, Set<String> keys) {
+        for (HomePieceOfFurniture piece : furniture) {
+            if (piece instanceof HomeFurnitureGroup)
+                collectEntitySettingsKeys(((HomeFurnitureGroup) piece).getFurniture(), keys);
+            else if (isHomeAssistantEntity(piece.getName()))
+                keys.add(Entity.getSettingsKey(piece));
+        }
+    }
+
     // Helper to recursively collect and categorize HomePieceOfFurniture items
     private void collectAndCategorizeHaPieces(List<HomePieceOfFurniture> furnitureListToProcess,
                                               Map<String, List<HomePieceOfFurniture>> lightHaPiecesGroupedByName,
-                                              List<HomePieceOfFurniture> nonLightHaPiecesOutputList) {
+                                              List<HomePieceOfFurniture> nonLightHaPiecesOutputList,
+                                              Set<HomePieceOfFurniture> allPieces) {
         for (HomePieceOfFurniture piece : furnitureListToProcess) {
+            allPieces.add(piece);
             if (piece instanceof HomeFurnitureGroup) {
-                collectAndCategorizeHaPieces(((HomeFurnitureGroup) piece).getFurniture(), lightHaPiecesGroupedByName, nonLightHaPiecesOutputList);
+                collectAndCategorizeHaPieces(((HomeFurnitureGroup) piece).getFurniture(), lightHaPiecesGroupedByName, nonLightHaPiecesOutputList, allPieces);
                 continue;
             }
 
@@ -1165,14 +1482,27 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         }
     }
 
-    private void createHomeAssistantEntities() {
+    /**
+     * Brings the entity lists up to date with the home's furniture. Entities whose
+     * pieces didn't change are kept as is, so only new or modified entities are
+     * created (and read their settings). Returns whether any of the lists changed.
+     */
+    private boolean updateHomeAssistantEntities() {
         // Map for grouping LIGHT HA entities by their HA name
         Map<String, List<HomePieceOfFurniture>> lightHaPiecesGroupedByName = new HashMap<>();
         // List for HomePieceOfFurniture items that are HA entities but NOT lights
         List<HomePieceOfFurniture> nonLightHaPieces = new ArrayList<>();
+        Set<HomePieceOfFurniture> allPieces = Collections.newSetFromMap(new IdentityHashMap<>());
 
         // Step 1: Traverse all furniture. Group light pieces by HA name. Collect non-light HA pieces.
-        collectAndCategorizeHaPieces(home.getFurniture(), lightHaPiecesGroupedByName, nonLightHaPieces);
+        collectAndCategorizeHaPieces(home.getFurniture(), lightHaPiecesGroupedByName, nonLightHaPieces, allPieces);
+        updateListenedPieces(allPieces);
+
+        List<Entity> newLightEntities = new ArrayList<>();
+        List<Entity> newOtherEntities = new ArrayList<>();
+        List<Entity> newOtherLevelsEntities = new ArrayList<>();
+        Map<String, Entity> newLightEntitiesByName = new HashMap<>();
+        Map<HomePieceOfFurniture, Entity> newOtherEntitiesByPiece = new IdentityHashMap<>();
 
         // Step 2: Create Entity objects for grouped LIGHT entities
         for (Map.Entry<String, List<HomePieceOfFurniture>> entry : lightHaPiecesGroupedByName.entrySet()) {
@@ -1181,9 +1511,13 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
 
             if (associatedLightPieces.isEmpty()) continue;
 
-            // Create a single Entity for this light.* HA entity name
-            Entity lightEntity = new Entity(settings, associatedLightPieces, resourceBundle);
-            addCommonPropertyChangeListeners(lightEntity);
+            // Create a single Entity for this light.* HA entity name, unless it already exists with the same pieces
+            Entity lightEntity = lightEntitiesByName.get(haLightName);
+            if (lightEntity == null || !isSamePieces(lightEntity.getPiecesOfFurniture(), associatedLightPieces)) {
+                lightEntity = new Entity(settings, associatedLightPieces, resourceBundle);
+                addCommonPropertyChangeListeners(lightEntity);
+            }
+            newLightEntitiesByName.put(haLightName, lightEntity);
 
             // Determine if this lightEntity belongs to lightEntities or otherLevelsEntities
             boolean anyPieceOnSelectedLevel = associatedLightPieces.stream()
@@ -1199,48 +1533,112 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                 );
 
             if (allPiecesAreSh3dLightsAndExclusivelyOnOtherLevels) {
-                this.otherLevelsEntities.add(lightEntity);
+                newOtherLevelsEntities.add(lightEntity);
             } else if (anyPieceOnSelectedLevel) {
-                this.lightEntities.add(lightEntity);
+                newLightEntities.add(lightEntity);
             }
         }
 
         // Step 3: Create Entity objects for non-light HA entities (one Entity per piece)
         for (HomePieceOfFurniture nonLightPiece : nonLightHaPieces) {
-            // Create an Entity for this single non-light piece.
-            Entity otherEntity = new Entity(settings, Arrays.asList(nonLightPiece), resourceBundle);
-            addCommonPropertyChangeListeners(otherEntity);
+            // Create an Entity for this single non-light piece, unless the piece wasn't renamed since it was created
+            Entity otherEntity = otherEntitiesByPiece.get(nonLightPiece);
+            if (otherEntity == null || !otherEntity.getName().equals(nonLightPiece.getName())) {
+                otherEntity = new Entity(settings, Arrays.asList(nonLightPiece), resourceBundle);
+                addCommonPropertyChangeListeners(otherEntity);
+            }
+            newOtherEntitiesByPiece.put(nonLightPiece, otherEntity);
 
             boolean isOnSelectedLevel = home.getEnvironment().isAllLevelsVisible() ||
                                         (nonLightPiece.getLevel() != null && nonLightPiece.getLevel() == home.getSelectedLevel());
 
             if (isOnSelectedLevel) {
-                this.otherEntities.add(otherEntity);
+                newOtherEntities.add(otherEntity);
             }
             // Non-light entities on other levels are currently not added to primary lists.
         }
 
         // Step 4: Sort all lists
-        Collections.sort(this.lightEntities);
-        Collections.sort(this.otherEntities);
-        Collections.sort(this.otherLevelsEntities);
+        Collections.sort(newLightEntities);
+        Collections.sort(newOtherEntities);
+        Collections.sort(newOtherLevelsEntities);
+
+        lightEntitiesByName = newLightEntitiesByName;
+        otherEntitiesByPiece = newOtherEntitiesByPiece;
+        if (newLightEntities.equals(lightEntities) && newOtherEntities.equals(otherEntities) && newOtherLevelsEntities.equals(otherLevelsEntities))
+            return false;
+        lightEntities = newLightEntities;
+        otherEntities = newOtherEntities;
+        otherLevelsEntities = newOtherLevelsEntities;
+        return true;
+    }
+
+    private static boolean isSamePieces(List<? extends HomePieceOfFurniture> first, List<HomePieceOfFurniture> second) {
+        if (first.size() != second.size())
+            return false;
+        for (int i = 0; i < first.size(); i++) {
+            if (first.get(i) != second.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void updateListenedPieces(Set<HomePieceOfFurniture> pieces) {
+        for (HomePieceOfFurniture piece : listenedPieces) {
+            if (!pieces.contains(piece))
+                piece.removePropertyChangeListener(pieceListener);
+        }
+        for (HomePieceOfFurniture piece : pieces) {
+            if (!listenedPieces.contains(piece))
+                piece.addPropertyChangeListener(pieceListener);
+        }
+        listenedPieces = pieces;
+    }
+
+    /**
+     * Updates the entities after furniture was added, removed or modified, and
+     * rebuilds the light groups, scenes and positions only if they changed.
+     */
+    private void refreshHomeAssistantEntities() {
+        rebuild(EnumSet.of(Rebuild.ENTITIES));
+    }
+
+    /**
+     * Rebuilds the parts of the model whose inputs changed, each at most once,
+     * however many changes were requested since the last rebuild.
+     */
+    private void rebuild(Set<Rebuild> tasks) {
+        boolean entitiesChanged = tasks.contains(Rebuild.ENTITIES) && updateHomeAssistantEntities();
+        if (tasks.contains(Rebuild.CAMERA)) {
+            // Explicitly update the plugin's working camera to the latest from Home
+            applySelectedCameraToWorkingCamera();
+        }
+        if (entitiesChanged || tasks.contains(Rebuild.LIGHTS_GROUPS)) {
+            buildLightsGroups();
+            buildScenes();
+            if (tasks.contains(Rebuild.LIGHTS_GROUPS))
+                propertyChangeSupport.firePropertyChange(Property.NUMBER_OF_RENDERS.name(), null, getNumberOfTotalRenders());
+        }
+        if (entitiesChanged || tasks.contains(Rebuild.CAMERA) || tasks.contains(Rebuild.POSITIONS))
+            repositionEntities();
     }
 
     private void buildLightsGroupsByRoom() {
-        List<Room> homeRooms = home.getRooms();
+        Map<Room, List<Entity>> roomsLights = new IdentityHashMap<>();
+        for (Entity entity : lightEntities) {
+            HomePieceOfFurniture light = entity.getPiecesOfFurniture().get(0);
+            for (Room room : roomIndex.getRoomsAt(light.getLevel(), light.getX(), light.getY(), 0))
+                roomsLights.computeIfAbsent(room, r -> new ArrayList<>()).add(entity);
+        }
 
-        for (Room room : homeRooms) {
+        for (Room room : home.getRooms()) {
+            List<Entity> roomLights = roomsLights.get(room);
+            if (roomLights == null)
+                continue;
             if (!home.getEnvironment().isAllLevelsVisible() && room.getLevel() != home.getSelectedLevel())
                 continue;
             String roomName = room.getName() != null ? room.getName() : room.getId();
-            for (Entity entity : lightEntities) {
-                HomePieceOfFurniture light = entity.getPiecesOfFurniture().get(0);
-                if (room.containsPoint(light.getX(), light.getY(), 0) && room.getLevel() == light.getLevel()) {
-                    if (!lightsGroups.containsKey(roomName))
-                        lightsGroups.put(roomName, new ArrayList<>());
-                    lightsGroups.get(roomName).add(entity);
-                }
-            }
+            lightsGroups.computeIfAbsent(roomName, name -> new ArrayList<>()).addAll(roomLights);
         }
     }
 
@@ -1321,24 +1719,21 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         return sensorPrefixes.stream().anyMatch(name::startsWith);
     }
 
-    private void build3dProjection() {
-        cameraPosition = new Vector4d(camera.getX(), camera.getZ(), camera.getY(), 0);
-
-        Transform3D yawRotation = new Transform3D();
-        yawRotation.rotY(camera.getYaw());
-
-        Transform3D pitchRotation = new Transform3D();
-        pitchRotation.rotX(-camera.getPitch());
+    private boolean build3dProjection() {
+        // Only rebuilt if the camera or the render size changed
+        return projection.update(camera, renderWidth, renderHeight);
+    }
 
-        perspectiveTransform = new Transform3D();
-        perspectiveTransform.perspective(camera.getFieldOfView(), (double)renderWidth / renderHeight, 0.1, 100);
-        perspectiveTransform.mul(pitchRotation);
-        perspectiveTransform.mul(yawRotation);
+    private static int putPoint(double[] points, int index, double x, double elevation, double depth) {
+        points[index * 3] = x;
+        points[index * 3 + 1] = elevation;
+        points[index * 3 + 2] = depth;
+        return index + 1;
     }
 
     private BufferedImage generateBaseRender(Scene scene, String imageName) throws IOException, InterruptedException {
-        BufferedImage image = generateImage(new ArrayList<>(), imageName);
-        return generateFloorPlanImage(image, image, imageName, false);
+        BufferedImage image = generateImage(scene, new ArrayList<>(), imageName);
+        return generateFloorPlanImage(image, image, imageName, false, false);
     }
 
     private String getFloorplanImageExtention() {
@@ -1347,34 +1742,52 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         return this.imageFormat.name().toLowerCase();
     }
 
-    private String generateGroupRenders(Scene scene, String group, BufferedImage baseImage) throws IOException, InterruptedException {
+    private String getBaseImageName(Scene scene) {
+        if (scene.getName().isEmpty())
+            return "base";
+        return scene.getName() + File.separator + "base";
+    }
+
+    private String getLightsImageName(Scene scene, List<Entity> onLights) {
+        String imageName = String.join("_", onLights.stream().map(Entity::getName).collect(Collectors.toList()));
+        if (scene.getName().isEmpty())
+            return imageName;
+        return scene.getName() + File.separator + imageName;
+    }
+
+    private void writeGroupRenders(YamlWriter yaml, Scene scene, String group, BufferedImage baseImage) throws IOException, InterruptedException {
         List<Entity> groupLights = lightsGroups.get(group);
 
         List<List<Entity>> lightCombinations = getCombinations(groupLights);
-        String yaml = "";
+        Map<Entity, BufferedImage> singleLightImages = new HashMap<>();
+        if (lightSuperposition) {
+            for (List<Entity> onLights : getRenderedCombinations(groupLights))
+                singleLightImages.put(onLights.get(0), generateImage(scene, onLights, getLightsImageName(scene, onLights)));
+        }
+
         for (List<Entity> onLights : lightCombinations) {
-            String imageName = String.join("_", onLights.stream().map(Entity::getName).collect(Collectors.toList()));
-            if (!scene.getName().isEmpty())
-                imageName = scene.getName() + File.separator + imageName;
-            BufferedImage image = generateImage(onLights, imageName);
+            String imageName = getLightsImageName(scene, onLights);
+            BufferedImage image;
+            if (lightSuperposition && onLights.size() == 1)
+                image = singleLightImages.get(onLights.get(0));
+            else if (lightSuperposition)
+                image = LightSuperposition.combine(baseImage, onLights.stream().map(singleLightImages::get).collect(Collectors.toList()));
+            else
+                image = generateImage(scene, onLights, imageName);
             Entity firstLight = onLights.get(0);
             boolean createOverlayImage = lightMixingMode == LightMixingMode.OVERLAY || (lightMixingMode == LightMixingMode.CSS && firstLight.getIsRgb());
-            BufferedImage floorPlanImage = generateFloorPlanImage(baseImage, image, imageName, createOverlayImage);
-            if (firstLight.getIsRgb()) {
-                generateRedTintedImage(floorPlanImage, imageName);
-                yaml += generateRgbLightYaml(scene, firstLight, imageName);
-            }
+            generateFloorPlanImage(baseImage, image, imageName, createOverlayImage, firstLight.getIsRgb());
+            if (firstLight.getIsRgb())
+                writeRgbLightYaml(yaml, scene, firstLight, imageName);
             else
-                yaml += generateLightYaml(scene, groupLights, onLights, imageName);
+                writeLightYaml(yaml, scene, groupLights, onLights, imageName);
         }
-        return yaml;
     }
 
     private void generateTransparentImage(String fileName) throws IOException {
         BufferedImage image = new BufferedImage(renderWidth, renderHeight, BufferedImage.TYPE_INT_ARGB);
         image.setRGB(0, 0, 0);
-        File imageFile = new File(fileName);
-        ImageIO.write(image, "png", imageFile);
+        writeFloorplanImage(image, "png", new File(fileName));
     }
 
     private void generateAndCacheEntityTransparentImage(String entityNameForFilename, int desiredWidth, int desiredHeight) throws IOException {
@@ -1409,7 +1822,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
 
         // Ensure the output directory exists
         Files.createDirectories(Paths.get(outputFloorplanDirectoryName));
-        ImageIO.write(image, "png", imageFile);
+        writeFloorplanImage(image, "png", imageFile);
         // System.out.println("Generated transparent image: " + filePath + " with dimensions " + desiredWidth + "x" + desiredHeight);
     }
 
@@ -1421,13 +1834,17 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         generateAndCacheEntityTransparentImage(entityName, width, height);
     }
 
-    private BufferedImage generateImage(List<Entity> onLights, String name) throws IOException, InterruptedException {
+    private BufferedImage generateImage(Scene scene, List<Entity> onLights, String name) throws IOException, InterruptedException {
         String fileName = outputRendersDirectoryName + File.separator + name + ".png";
 
-        if (useExistingRenders && Files.exists(Paths.get(fileName))) {
-            propertyChangeSupport.firePropertyChange(Property.COMPLETED_RENDERS.name(), numberOfCompletedRenders, ++numberOfCompletedRenders);
+        if (renderPool != null && renderPool.contains(name))
+            return renderPool.getImage(name);
+        String renderKey = getRenderKey(scene, onLights);
+        if (restoreRender(name, renderKey, Paths.get(fileName))) {
+            incrementCompletedRenders();
             return ImageIO.read(Files.newInputStream(Paths.get(fileName)));
-        }        
+        }
+        renderManifest.started(name, renderKey);
         final List<Entity> finalOnLights = new ArrayList<>(onLights); // Ensure effectively final for lambda
         try {
             SwingUtilities.invokeAndWait(() -> {
@@ -1441,9 +1858,8 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         }
 
         BufferedImage image = renderScene();
-        File imageFile = new File(fileName);
-        ImageIO.write(image, "png", imageFile);
-        propertyChangeSupport.firePropertyChange(Property.COMPLETED_RENDERS.name(), numberOfCompletedRenders, ++numberOfCompletedRenders);
+        writeRender(name, renderKey, image);
+        incrementCompletedRenders();
         return image;
     }
 
@@ -1452,14 +1868,21 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             light.setLightPower(onLights.contains(light) || light.getAlwaysOn());
     }
 
-    private BufferedImage renderScene() throws IOException, InterruptedException {
+    private String getRendererClassName() {
         Map<Renderer, String> rendererToClassName = new HashMap<Renderer, String>() {{
             put(Renderer.SUNFLOW, "com.eteks.sweethome3d.j3d.PhotoRenderer");
             put(Renderer.YAFARAY, "com.eteks.sweethome3d.j3d.YafarayRenderer");
         }};
+        return rendererToClassName.get(renderer);
+    }
+
+    private AbstractPhotoRenderer.Quality getPhotoRendererQuality() {
+        return this.quality == Quality.LOW ? AbstractPhotoRenderer.Quality.LOW : AbstractPhotoRenderer.Quality.HIGH;
+    }
+
+    private BufferedImage renderScene() throws IOException, InterruptedException {
         photoRenderer = AbstractPhotoRenderer.createInstance(
-            rendererToClassName.get(renderer),
-            home, null, this.quality == Quality.LOW ? AbstractPhotoRenderer.Quality.LOW : AbstractPhotoRenderer.Quality.HIGH);
+            getRendererClassName(), home, null, getPhotoRendererQuality());
         BufferedImage image = new BufferedImage(renderWidth, renderHeight, BufferedImage.TYPE_INT_RGB);
         photoRenderer.render(image, camera, null);
         if (photoRenderer != null) {
@@ -1472,54 +1895,74 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         return image;
     }
 
-    private BufferedImage generateFloorPlanImage(BufferedImage baseImage, BufferedImage image, String name, boolean createOverlayImage) throws IOException {
+    private BufferedImage generateFloorPlanImage(BufferedImage baseImage, BufferedImage image, String name, boolean createOverlayImage, boolean createRedTintedImage) throws IOException {
         String imageExtension = createOverlayImage ? "png" : getFloorplanImageExtention();
         File floorPlanFile = new File(outputFloorplanDirectoryName + File.separator + name + "." + imageExtension);
+        BufferedImage redTintedImage = createRedTintedImage ? new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB) : null;
 
         if (!createOverlayImage) {
-            ImageIO.write(image, imageExtension, floorPlanFile);
+            writeFloorplanImage(image, imageExtension, floorPlanFile);
+            if (redTintedImage != null) {
+                ImageOperations.redTint(image, redTintedImage);
+                writeRedTintedImage(redTintedImage, name);
+            }
             return image;
         }
 
-        BufferedImage overlay = new BufferedImage(baseImage.getWidth(), baseImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-        for(int x = 0; x < baseImage.getWidth(); x++) {
-            for(int y = 0; y < baseImage.getHeight(); y++) {
-                int diff = pixelDifference(baseImage.getRGB(x, y), image.getRGB(x, y));
-                overlay.setRGB(x, y, diff > sensitivity ? image.getRGB(x, y) : 0);
-            }
-        }
+        BufferedImage overlay = ImageOperations.overlayDifference(baseImage, image, sensitivity, redTintedImage);
 
-        ImageIO.write(overlay, "png", floorPlanFile);
+        writeFloorplanImage(overlay, "png", floorPlanFile);
+        if (redTintedImage != null)
+            writeRedTintedImage(redTintedImage, name);
         return overlay;
     }
 
-    private int pixelDifference(int first, int second) {
-        int diff =
-            Math.abs((first & 0xff) - (second & 0xff)) +
-            Math.abs(((first >> 8) & 0xff) - ((second >> 8) & 0xff)) +
-            Math.abs(((first >> 16) & 0xff) - ((second >> 16) & 0xff));
-        return diff / 3;
+    private void writeRedTintedImage(BufferedImage redTintedImage, String imageName) throws IOException {
+        File redTintedFile = new File(outputFloorplanDirectoryName + File.separator + imageName + ".red.png");
+        writeFloorplanImage(redTintedImage, "png", redTintedFile);
     }
 
-    private BufferedImage generateRedTintedImage(BufferedImage image, String imageName) throws IOException {
-        File redTintedFile = new File(outputFloorplanDirectoryName + File.separator + imageName + ".red.png");
-        BufferedImage tintedImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+    /**
+     * Writes an image to the floorplan directory, computing its version hash
+     * on the encoded bytes as they are written so it never needs to be read back.
+     * While rendering, the image is written in the background and its hash is
+     * only waited for when the YAML needs it.
+     */
+    private void writeFloorplanImage(BufferedImage image, String format, File file) throws IOException {
+        floorplanImageHashes.remove(file.getAbsolutePath());
+        WriteBehindQueue writer = imageWriter;
+        if (writer == null) {
+            floorplanImageHashes.put(file.getAbsolutePath(), CompletableFuture.completedFuture(encodeFloorplanImage(image, format, file)));
+            return;
+        }
+        try {
+            floorplanImageHashes.put(file.getAbsolutePath(), writer.submit(() -> encodeFloorplanImage(image, format, file)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
 
-        for(int x = 0; x < image.getWidth(); x++) {
-            for(int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getRGB(x, y);
-                if (rgb == 0)
-                    continue;
-                Color original = new Color(rgb, true);
-                float hsb[] = Color.RGBtoHSB(original.getRed(), original.getGreen(), original.getBlue(), null);
-                Color redTint = Color.getHSBColor(1.0f, 0.75f, hsb[2]);
-                tintedImage.setRGB(x, y, redTint.getRGB());
-            }
+    private String encodeFloorplanImage(BufferedImage image, String format, File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            AtomicFile.write(file.toPath(), output -> ImageIO.write(image, format, output));
+            return Long.toString(System.currentTimeMillis() / 1000L);
         }
 
-        ImageIO.write(tintedImage, "png", redTintedFile);
-        return tintedImage;
+        boolean written;
+        try (AtomicFile atomicFile = new AtomicFile(file.toPath())) {
+            try (OutputStream output = new BufferedOutputStream(new DigestOutputStream(Files.newOutputStream(atomicFile.getTemporaryFile()), digest));
+                 ImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output)) {
+                written = ImageIO.write(image, format, imageOutput);
+            }
+            atomicFile.commit();
+        }
+        if (!written)
+            throw new IOException("No image writer for format " + format);
+        return bytesToHex(digest.digest());
     }
 
     private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
@@ -1533,41 +1976,52 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         return new String(hexChars);
     }
 
-    public String renderHash(String imageName) throws IOException {
+    public Future<String> renderHash(String imageName) throws IOException {
         return renderHash(imageName, false);
     }
 
-    public String renderHash(String imageName, boolean forcePng) throws IOException {
+    /**
+     * Returns the version hash of a floorplan image, which is only available
+     * once the image was written. {@link YamlWriter} waits for it as needed.
+     */
+    public Future<String> renderHash(String imageName, boolean forcePng) throws IOException {
         String imageExtension = forcePng ? "png" : getFloorplanImageExtention();
-        byte[] content = Files.readAllBytes(Paths.get(outputFloorplanDirectoryName + File.separator + imageName + "." + imageExtension));
+        File imageFile = new File(outputFloorplanDirectoryName + File.separator + imageName + "." + imageExtension);
+        Future<String> cachedHash = floorplanImageHashes.get(imageFile.getAbsolutePath());
+        if (cachedHash != null)
+            return cachedHash;
+
+        // Only images that were not written during this run (e.g. reused ones) need to be read back
+        byte[] content = Files.readAllBytes(imageFile.toPath());
         try {
-            byte[] hash = MessageDigest.getInstance("MD5").digest(content);
-            return bytesToHex(hash);
+            Future<String> hash = CompletableFuture.completedFuture(bytesToHex(MessageDigest.getInstance("MD5").digest(content)));
+            floorplanImageHashes.put(imageFile.getAbsolutePath(), hash);
+            return hash;
         } catch (NoSuchAlgorithmException e) {
-            return Long.toString(System.currentTimeMillis() / 1000L);
+            return CompletableFuture.completedFuture(Long.toString(System.currentTimeMillis() / 1000L));
         }
     }
 
-    private String generateLightYaml(Scene scene, List<Entity> lights, List<Entity> onLights, String imageName) throws IOException {
-        return generateLightYaml(scene, lights, onLights, imageName, true);
+    private void writeLightYaml(YamlWriter yaml, Scene scene, List<Entity> lights, List<Entity> onLights, String imageName) throws IOException {
+        writeLightYaml(yaml, scene, lights, onLights, imageName, true);
     }
 
-    private String generateLightYaml(Scene scene, List<Entity> lights, List<Entity> onLights, String imageName, boolean includeMixBlend) throws IOException {
-        String conditions = "";
+    private void writeLightYaml(YamlWriter yaml, Scene scene, List<Entity> lights, List<Entity> onLights, String imageName, boolean includeMixBlend) throws IOException {
+        yaml.write(
+            "  - type: conditional\n" +
+            "    conditions:\n");
         for (Entity light : lights) {
-            conditions += String.format(
+            yaml.format(
                 "      - condition: state\n" +
                 "        entity: %s\n" +
                 "        state: '%s'\n",
                 light.getName(), onLights.contains(light) ? "on" : "off");
         }
-        conditions += scene.getConditions();
-        if (conditions.length() == 0)
-            conditions = "      []\n";
+        scene.writeConditions(yaml);
+        if (lights.isEmpty() && !scene.hasConditions())
+            yaml.write("      []\n");
 
-        return String.format(
-            "  - type: conditional\n" +
-            "    conditions:\n%s" +
+        yaml.format(
             "    elements:\n" +
             "      - type: image\n" +
             "        tap_action:\n" +
@@ -1580,19 +2034,22 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             "          left: 50%%\n" +
             "          top: 50%%\n" +
             "          width: 100%%\n%s",
-            conditions, normalizePath(imageName), getFloorplanImageExtention(), renderHash(imageName),
+            normalizePath(imageName), getFloorplanImageExtention(), renderHash(imageName),
             includeMixBlend && lightMixingMode == LightMixingMode.CSS ? "          mix-blend-mode: lighten\n" : "");
     }
 
-    private String generateRgbLightYaml(Scene scene, Entity light, String imageName) throws IOException {
+    private void writeRgbLightYaml(YamlWriter yaml, Scene scene, Entity light, String imageName) throws IOException {
         String lightName = light.getName();
 
-        return String.format(
+        yaml.format(
             "  - type: conditional\n" +
             "    conditions:\n" +
             "      - condition: state\n" +
             "        entity: %s\n" +
-            "        state: 'on'\n%s" +
+            "        state: 'on'\n",
+            lightName);
+        scene.writeConditions(yaml);
+        yaml.format(
             "    elements:\n" +
             "      - type: custom:config-template-card\n" +
             "        variables:\n" +
@@ -1617,7 +2074,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             "            left: 50%%\n" +
             "            top: 50%%\n" +
             "            width: 100%%\n",
-            lightName, scene.getConditions(), lightName, lightName, lightName, lightName, lightName,
+            lightName, lightName, lightName, lightName, lightName,
             normalizePath(imageName), renderHash(imageName, true), normalizePath(imageName) + ".red", renderHash(imageName + ".red", true));
     }
 
@@ -1655,6 +2112,20 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         return combinations;
     }
 
+    /**
+     * Returns the light combinations that need to be actually rendered. With light
+     * superposition only the single light renders are needed, all other
+     * combinations are synthesized from them.
+     */
+    private List<List<Entity>> getRenderedCombinations(List<Entity> groupLights) {
+        if (!lightSuperposition)
+            return getCombinations(groupLights);
+
+        List<Entity> inputList = new ArrayList<>(groupLights);
+        removeAlwaysOnLights(inputList);
+        return inputList.stream().map(Collections::singletonList).collect(Collectors.toList());
+    }
+
     private void _getCombinations(List<Entity> inputList, int currentIndex, List<Entity> currentCombination, List<List<Entity>> combinations) {
         if (currentCombination.size() > 0)
             combinations.add(new ArrayList<>(currentCombination));
@@ -1667,43 +2138,54 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     }
 
     private Point2d getFurniture2dLocation(HomePieceOfFurniture piece) {
+        return getFurniture2dLocations(Collections.singletonList(piece)).get(0);
+    }
+
+    private List<Point2d> getFurniture2dLocations(List<HomePieceOfFurniture> pieces) {
+        List<Point2d> locations = new ArrayList<>(pieces.size());
         if (this.houseNdcBounds == null) {
             System.err.println("Error: houseNdcBounds not calculated. Cannot get furniture 2D location.");
             // Fallback to a clearly problematic default or throw an exception
-            return new Point2d(-1.0, -1.0); 
+            for (int i = 0; i < pieces.size(); i++)
+                locations.add(new Point2d(-1.0, -1.0));
+            return locations;
         }
-        float levelOffset = piece.getLevel() != null ? piece.getLevel().getElevation() : 0;
-        // Calculate the Y-coordinate of the top surface of the piece in world coordinates.
-        // piece.getElevation() is relative to its level's floor.
-        float pieceWorldY = piece.getElevation() + piece.getHeight() + levelOffset;
 
-        // World coordinates of the point to project (center of the furniture piece)
-        // (worldX, worldY_vertical, worldZ_depth, 1.0)
-        Vector4d pointToProject = new Vector4d(piece.getX(), pieceWorldY, piece.getY(), 1.0);
-        
-        // Transform to view space and then to NDC, consistent with getRoomBoundingBoxPercent
-        Vector4d ndcPos = new Vector4d(pointToProject);
-        // cameraPosition is (camX_world, camZ_depth_world, camY_vertical_world, 0)
-        ndcPos.sub(cameraPosition); // After sub, ndcPos.w is still 1.0 (because pointToProject.w=1, cameraPosition.w=0)
-        perspectiveTransform.transform(ndcPos); // ndcPos.w is now perspective w'
+        // World coordinates of the points to project (center of the top surface of each furniture piece)
+        // (worldX, worldY_vertical, worldZ_depth)
+        double[] pointsToProject = new double[pieces.size() * 3];
+        int pointIndex = 0;
+        for (HomePieceOfFurniture piece : pieces) {
+            float levelOffset = piece.getLevel() != null ? piece.getLevel().getElevation() : 0;
+            // Calculate the Y-coordinate of the top surface of the piece in world coordinates.
+            // piece.getElevation() is relative to its level's floor.
+            float pieceWorldY = piece.getElevation() + piece.getHeight() + levelOffset;
+            pointIndex = putPoint(pointsToProject, pointIndex, piece.getX(), pieceWorldY, piece.getY());
+        }
 
-        if (ndcPos.w == 0) { // Avoid division by zero
-            System.err.println("Warning: NDC.w is zero for entity " + piece.getName() + 
-                               " during getFurniture2dLocation. Defaulting to screen center.");
-            return new Point2d(50.0, 50.0); 
+        // Transform to view space and then to NDC, consistent with getRoomBoundingBoxPercent
+        double[] ndc = new double[pieces.size() * 2];
+        projection.project(pointsToProject, pieces.size(), ndc);
+
+        for (int i = 0; i < pieces.size(); i++) {
+            if (Double.isNaN(ndc[i * 2])) { // Avoid division by zero
+                System.err.println("Warning: NDC.w is zero for entity " + pieces.get(i).getName() +
+                                   " during getFurniture2dLocation. Defaulting to screen center.");
+                locations.add(new Point2d(50.0, 50.0));
+                continue;
+            }
+            // Convert NDC to screen percentage (0% to 100%) for the entire viewport.
+            // (ndc.x * 0.5 + 0.5) maps NDC X from [-1, 1] to screen X [0, 1]
+            // (ndc.y * 0.5 + 0.5) maps NDC Y from [-1, 1] to screen Y [0, 1] (where 0% is top, 100% is bottom if Y points up in NDC)
+            double screenXPercent = (ndc[i * 2] * 0.5 + 0.5) * 100.0;
+            double screenYPercent = (ndc[i * 2 + 1] * 0.5 + 0.5) * 100.0;
+            locations.add(new Point2d(screenXPercent, screenYPercent));
         }
-        ndcPos.scale(1.0 / ndcPos.w); // Perspective divide (NDC: -1 to 1 range)
-        
-        // Convert NDC to screen percentage (0% to 100%) for the entire viewport.
-        // (ndcPos.x * 0.5 + 0.5) maps NDC X from [-1, 1] to screen X [0, 1]
-        // (ndcPos.y * 0.5 + 0.5) maps NDC Y from [-1, 1] to screen Y [0, 1] (where 0% is top, 100% is bottom if Y points up in NDC)
-        double screenXPercent = (ndcPos.x * 0.5 + 0.5) * 100.0;
-        double screenYPercent = (ndcPos.y * 0.5 + 0.5) * 100.0; 
-        return new Point2d(screenXPercent, screenYPercent);
+        return locations;
     }
 
 
-    private String generateEntitiesYaml() {
+    private void writeEntitiesYaml(YamlWriter yaml) throws IOException, InterruptedException {
         // Combine light and other entities into a single list for sorting
         List<Entity> allEntities = Stream.concat(lightEntities.stream(), otherEntities.stream())
                                        .collect(Collectors.toList());
@@ -1730,125 +2212,155 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             }
         });
 
-        List<String> allYamlElements = new ArrayList<>();
-        for (Entity entity : allEntities) {
-            // entity.buildYaml(this) now returns a List<String>
-            allYamlElements.addAll(entity.buildYaml(this)); 
-        }
-
-        // Join all collected elements into a single string
-        return String.join("", allYamlElements);
+        for (Entity entity : allEntities)
+            entity.writeYaml(this, yaml);
     }
 
     private void repositionEntities() {
-        build3dProjection();
+        Map<String, Double> oldHouseNdcBounds = houseNdcBounds;
+        boolean projectionChanged = build3dProjection();
         calculateHouseNdcBounds(); // Calculate overall house bounds in NDC
+        if (projectionChanged || !Objects.equals(oldHouseNdcBounds, houseNdcBounds))
+            clearRoomScreenBounds();
         calculateEntityPositions();
-        moveEntityIconsToAvoidIntersection();
+
+        long start = System.nanoTime();
+        iconLayoutConverged = true;
+        if (iconLayout == IconLayout.FORCE_DIRECTED)
+            iconLayoutIterations = layoutEntityIconsWithForces();
+        else
+            iconLayoutIterations = moveEntityIconsToAvoidIntersection();
+        iconLayoutNanos = System.nanoTime() - start;
     }
 
     private void calculateEntityPositions() {
-        Stream.concat(lightEntities.stream(), otherEntities.stream())
-            .forEach(entity -> {
-                Point2d entityCenter = new Point2d();
-                for (HomePieceOfFurniture piece : entity.getPiecesOfFurniture())
-                    entityCenter.add(getFurniture2dLocation(piece));
-                entityCenter.scale(1.0 / entity.getPiecesOfFurniture().size());
+        // Project the furniture of all entities in a single batch
+        List<Entity> allEntities = new ArrayList<>(lightEntities.size() + otherEntities.size());
+        allEntities.addAll(lightEntities);
+        allEntities.addAll(otherEntities);
+        List<HomePieceOfFurniture> pieces = new ArrayList<>();
+        for (Entity entity : allEntities)
+            pieces.addAll(entity.getPiecesOfFurniture());
+        List<Point2d> locations = getFurniture2dLocations(pieces);
+
+        int locationIndex = 0;
+        for (Entity entity : allEntities) {
+            Point2d entityCenter = new Point2d();
+            for (int i = 0; i < entity.getPiecesOfFurniture().size(); i++)
+                entityCenter.add(locations.get(locationIndex++));
+            entityCenter.scale(1.0 / entity.getPiecesOfFurniture().size());
 
-                entity.setPosition(entityCenter, false);
-            });
+            entity.setPosition(entityCenter, false);
+        }
     }
 
-    private boolean doStateIconsIntersect(Entity first, Entity second) {
+    /**
+     * Radius in pixels of the state icon of each entity and its position in pixels,
+     * indexed by the entity's position in the list being laid out.
+     */
+    private static class StateIconLayout {
+        public final List<Entity> entities;
+        public final Map<Entity, Integer> indices = new IdentityHashMap<>();
+        public final double[] radii;
+        public final double[] x;
+        public final double[] y;
+
+        public StateIconLayout(List<Entity> entities) {
+            this.entities = entities;
+            radii = new double[entities.size()];
+            x = new double[entities.size()];
+            y = new double[entities.size()];
+            for (int i = 0; i < entities.size(); i++)
+                indices.put(entities.get(i), i);
+        }
+    }
+
+    private double getStateIconRadius(Entity entity) {
         // The icon size is now responsive, defined as a percentage of the card dimensions.
         // This collision detection logic must therefore calculate the icon's size in pixels
         // based on the render dimensions to accurately check for overlap.
+        double scaledSizePercent = entity.getDefaultIconBadgeBaseSizePercent() * entity.getScaleFactor();
 
-        // Calculate the scaled size percentage for each icon
-        double firstScaledSizePercent = first.getDefaultIconBadgeBaseSizePercent() * first.getScaleFactor();
-        double secondScaledSizePercent = second.getDefaultIconBadgeBaseSizePercent() * second.getScaleFactor();
+        // Since the render area may not be square, we calculate X and Y diameters and average
+        // them to approximate a circular shape for the check.
+        double diameterXPx = (scaledSizePercent / 100.0) * renderWidth;
+        double diameterYPx = (scaledSizePercent / 100.0) * renderHeight;
+        double avgDiameter = (diameterXPx + diameterYPx) / 2.0;
 
-        // Calculate diameter in pixels for each icon. Since the render area may not be square,
-        // we calculate X and Y diameters and average them to approximate a circular shape for the check.
-        double firstDiameterXPx = (firstScaledSizePercent / 100.0) * renderWidth;
-        double firstDiameterYPx = (firstScaledSizePercent / 100.0) * renderHeight;
-        double firstAvgDiameter = (firstDiameterXPx + firstDiameterYPx) / 2.0;
-
-        double secondDiameterXPx = (secondScaledSizePercent / 100.0) * renderWidth;
-        double secondDiameterYPx = (secondScaledSizePercent / 100.0) * renderHeight;
-        double secondAvgDiameter = (secondDiameterXPx + secondDiameterYPx) / 2.0;
+        return avgDiameter / 2.0;
+    }
 
+    private boolean doStateIconsIntersect(StateIconLayout layout, int first, int second) {
         // The minimum distance between centers is the sum of their radii.
-        double minCenterDist = (firstAvgDiameter / 2.0) + (secondAvgDiameter / 2.0);
-        
+        double minCenterDist = layout.radii[first] + layout.radii[second];
+
         // Add a margin to prevent icons from touching. 20% of the minimum distance is a reasonable gap.
         double margin = minCenterDist * 0.20;
         double requiredDist = minCenterDist + margin;
 
-        Point2d firstPositionInPixels = new Point2d(first.getPosition().x / 100.0 * renderWidth, first.getPosition().y / 100.0 * renderHeight);
-        Point2d secondPositionInPixels = new Point2d(second.getPosition().x / 100.0 * renderWidth, second.getPosition().y / 100.0 * renderHeight);
+        double dx = layout.x[first] - layout.x[second];
+        double dy = layout.y[first] - layout.y[second];
 
-        double distSq = Math.pow(firstPositionInPixels.x - secondPositionInPixels.x, 2) + Math.pow(firstPositionInPixels.y - secondPositionInPixels.y, 2);
-
-        return distSq <= Math.pow(requiredDist, 2);
+        return dx * dx + dy * dy <= requiredDist * requiredDist;
     }
 
-    private boolean doesStateIconIntersectWithSet(Entity entity, Set<Entity> entities) {
-        for (Entity other : entities) {
-            if (doStateIconsIntersect(entity, other))
-                return true;
-        }
-        return false;
-    }
-
-    private Set<Entity> setWithWhichStateIconIntersects(Entity entity, List<Set<Entity>> entities) {
-        for (Set<Entity> set : entities) {
-            if (doesStateIconIntersectWithSet(entity, set))
-                return set;
-        }
-        return null;
-    }
-
-    private Optional<Entity> stateIconWithWhichStateIconIntersects(Entity entity) {
-        return Stream.concat(lightEntities.stream(), otherEntities.stream())
-            .filter(other -> {
-                if (entity == other)
-                    return false;
-                return doStateIconsIntersect(entity, other);
-            }).findFirst();
+    private boolean isStateIconLaidOut(Entity entity) {
+        // Exclude entities whose icons are completely invisible AND non-interactive.
+        // These entities serve no visual or interactive purpose, so their position does not need to be adjusted for overlap.
+        if (entity.getOpacity() == 0 &&
+            entity.getTapAction() == Entity.Action.NONE &&
+            entity.getDoubleTapAction() == Entity.Action.NONE &&
+            entity.getHoldAction() == Entity.Action.NONE)
+            return false;
+        // Exclude entities explicitly marked to be excluded from overlap detection
+        return !entity.isExcludedFromOverlap();
     }
 
-    private List<Set<Entity>> findIntersectingStateIcons() {
+    private List<Set<Entity>> findIntersectingStateIcons(StateIconLayout layout, SpatialGrid<Entity> grid) {
         List<Set<Entity>> intersectingStateIcons = new ArrayList<Set<Entity>>();
+        // Index of the first set each entity was added to. Sets are only appended, so that is also
+        // the first set in the list the entity belongs to
+        Map<Entity, Integer> firstSetIndices = new IdentityHashMap<>();
+        List<Entity> nearbyEntities = new ArrayList<>();
+
+        for (int index = 0; index < layout.entities.size(); index++) {
+            Entity entity = layout.entities.get(index);
+            if (!isStateIconLaidOut(entity))
+                continue;
 
-        Stream.concat(lightEntities.stream(), otherEntities.stream())
-            .filter(entity -> {
-                // Exclude entities whose icons are completely invisible AND non-interactive.
-                // These entities serve no visual or interactive purpose, so their position does not need to be adjusted for overlap.
-                return !(entity.getOpacity() == 0 &&
-                         entity.getTapAction() == Entity.Action.NONE &&
-                         entity.getDoubleTapAction() == Entity.Action.NONE &&
-                         entity.getHoldAction() == Entity.Action.NONE);
-            })
-            .filter(entity -> {
-                // Exclude entities explicitly marked to be excluded from overlap detection
-                boolean explicitlyExcluded = entity.isExcludedFromOverlap();
-                return !explicitlyExcluded;
-            })
-            .forEach(entity -> {
-                Set<Entity> interectingSet = setWithWhichStateIconIntersects(entity, intersectingStateIcons);
-                if (interectingSet != null) {
-                    interectingSet.add(entity);
-                    return;
-                }
-                Optional<Entity> intersectingStateIcon = stateIconWithWhichStateIconIntersects(entity);
-                if (!intersectingStateIcon.isPresent())
-                    return;
-                Set<Entity> intersectingGroup = new HashSet<Entity>();
-                intersectingGroup.add(entity);
-                intersectingGroup.add(intersectingStateIcon.get());
-                intersectingStateIcons.add(intersectingGroup);
-            });
+            // Only icons in the neighbouring cells can intersect this one. Among them, find the
+            // first set (including the one the entity may already be part of) and the first
+            // other entity, in layout order, that it intersects with
+            nearbyEntities.clear();
+            grid.forEachNear(layout.x[index], layout.y[index], nearbyEntities::add);
+            int intersectingSetIndex = Integer.MAX_VALUE;
+            int intersectingEntityIndex = Integer.MAX_VALUE;
+            for (Entity other : nearbyEntities) {
+                int otherIndex = layout.indices.get(other);
+                if (!doStateIconsIntersect(layout, index, otherIndex))
+                    continue;
+                Integer setIndex = firstSetIndices.get(other);
+                if (setIndex != null)
+                    intersectingSetIndex = Math.min(intersectingSetIndex, setIndex);
+                if (otherIndex != index)
+                    intersectingEntityIndex = Math.min(intersectingEntityIndex, otherIndex);
+            }
+
+            if (intersectingSetIndex != Integer.MAX_VALUE) {
+                intersectingStateIcons.get(intersectingSetIndex).add(entity);
+                firstSetIndices.putIfAbsent(entity, intersectingSetIndex);
+                continue;
+            }
+            if (intersectingEntityIndex == Integer.MAX_VALUE)
+                continue;
+            Entity intersectingStateIcon = layout.entities.get(intersectingEntityIndex);
+            Set<Entity> intersectingGroup = new HashSet<Entity>();
+            intersectingGroup.add(entity);
+            intersectingGroup.add(intersectingStateIcon);
+            firstSetIndices.putIfAbsent(entity, intersectingStateIcons.size());
+            firstSetIndices.putIfAbsent(intersectingStateIcon, intersectingStateIcons.size());
+            intersectingStateIcons.add(intersectingGroup);
+        }
 
         return intersectingStateIcons;
     }
@@ -1909,14 +2421,77 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         }
     }
 
-    private void moveEntityIconsToAvoidIntersection() {
-        for (int i = 0; i < 100; i++) {
-            List<Set<Entity>> intersectingStateIcons = findIntersectingStateIcons();
+    private int moveEntityIconsToAvoidIntersection() {
+        List<Entity> allEntities = new ArrayList<>(lightEntities.size() + otherEntities.size());
+        allEntities.addAll(lightEntities);
+        allEntities.addAll(otherEntities);
+        StateIconLayout layout = new StateIconLayout(allEntities);
+
+        double maxRadius = 0;
+        for (int i = 0; i < allEntities.size(); i++) {
+            layout.radii[i] = getStateIconRadius(allEntities.get(i));
+            maxRadius = Math.max(maxRadius, layout.radii[i]);
+        }
+        // Icons further apart than the largest required distance (twice the largest radius plus
+        // the 20% margin) never intersect, so cells of that size (with some slack for rounding)
+        // only require checking the neighbouring cells
+        SpatialGrid<Entity> grid = new SpatialGrid<>(maxRadius * 2.0 * 1.25);
+
+        int iterations = 0;
+        while (iterations < 100) {
+            iterations++;
+            // Only icons that moved to another cell since the previous iteration are re-indexed
+            for (int j = 0; j < allEntities.size(); j++) {
+                Point2d position = allEntities.get(j).getPosition();
+                layout.x[j] = position.x / 100.0 * renderWidth;
+                layout.y[j] = position.y / 100.0 * renderHeight;
+                grid.put(allEntities.get(j), layout.x[j], layout.y[j]);
+            }
+            List<Set<Entity>> intersectingStateIcons = findIntersectingStateIcons(layout, grid);
             if (intersectingStateIcons.size() == 0)
                 break;
             for (Set<Entity> set : intersectingStateIcons)
                 separateStateIcons(set);
         }
+        return iterations;
+    }
+
+    private int layoutEntityIconsWithForces() {
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : lightEntities) {
+            if (isStateIconLaidOut(entity))
+                entities.add(entity);
+        }
+        for (Entity entity : otherEntities) {
+            if (isStateIconLaidOut(entity))
+                entities.add(entity);
+        }
+
+        // Each icon is anchored to the projected location of its furniture, as calculated by
+        // calculateEntityPositions(). Icons placed by the user don't move, but still push others away
+        double[] anchorX = new double[entities.size()];
+        double[] anchorY = new double[entities.size()];
+        double[] radii = new double[entities.size()];
+        boolean[] fixed = new boolean[entities.size()];
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            Point2d position = entity.getPosition();
+            anchorX[i] = position.x / 100.0 * renderWidth;
+            anchorY[i] = position.y / 100.0 * renderHeight;
+            radii[i] = getStateIconRadius(entity);
+            fixed[i] = entity.isPositionModified();
+        }
+
+        ForceDirectedLayout layout = new ForceDirectedLayout(anchorX, anchorY, radii, fixed);
+        layout.solve();
+        iconLayoutConverged = layout.isConverged();
+
+        for (int i = 0; i < entities.size(); i++) {
+            if (fixed[i])
+                continue;
+            entities.get(i).setPosition(new Point2d(layout.getX(i) / renderWidth * 100.0, layout.getY(i) / renderHeight * 100.0), false);
+        }
+        return layout.getIterations();
     }
 
     private boolean doAreasOverlap(Map<String, Double> rectA, Map<String, Double> rectB) {
@@ -1946,20 +2521,34 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         List<Entity> roomSizeEntities = getAllConfiguredEntities().stream()
                                             .filter(e -> e.getClickableAreaType() == Entity.ClickableAreaType.ROOM_SIZE)
                                             .collect(Collectors.toList());
-
+        List<Map<String, Double>> bounds = new ArrayList<>(roomSizeEntities.size());
+        List<Integer> byLeft = new ArrayList<>();
         for (int i = 0; i < roomSizeEntities.size(); i++) {
-            for (int j = i + 1; j < roomSizeEntities.size(); j++) {
-                Entity entityA = roomSizeEntities.get(i);
-                Entity entityB = roomSizeEntities.get(j);
-                Map<String, Double> boundsA = getRoomBoundingBoxPercent(entityA); // Uses current controller state
-                Map<String, Double> boundsB = getRoomBoundingBoxPercent(entityB); // Uses current controller state
-
-                if (doAreasOverlap(boundsA, boundsB)) {
-                    errors.add(String.format(Locale.US, 
-                        "Entity '%s' and Entity '%s'",
-                        entityA.getName(), entityB.getName()));
-                }
+            bounds.add(getRoomBoundingBoxPercent(roomSizeEntities.get(i))); // Uses current controller state
+            if (bounds.get(i) != null)
+                byLeft.add(i);
+        }
+
+        // Sweep from left to right, only comparing areas whose horizontal spans overlap the current one
+        byLeft.sort(Comparator.comparingDouble(i -> bounds.get(i).get("left")));
+        List<Integer> active = new ArrayList<>();
+        List<int[]> overlappingPairs = new ArrayList<>();
+        for (int current : byLeft) {
+            double left = bounds.get(current).get("left");
+            active.removeIf(i -> bounds.get(i).get("left") + bounds.get(i).get("width") <= left);
+            for (int other : active) {
+                if (doAreasOverlap(bounds.get(other), bounds.get(current)))
+                    overlappingPairs.add(new int[] {Math.min(other, current), Math.max(other, current)});
             }
+            active.add(current);
+        }
+
+        // Report the pairs in the order of the entities
+        overlappingPairs.sort(Comparator.<int[]>comparingInt(pair -> pair[0]).thenComparingInt(pair -> pair[1]));
+        for (int[] pair : overlappingPairs) {
+            errors.add(String.format(Locale.US,
+                "Entity '%s' and Entity '%s'",
+                roomSizeEntities.get(pair[0]).getName(), roomSizeEntities.get(pair[1]).getName()));
         }
         return errors;
     }
@@ -2086,8 +2675,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
             }
         }
 
-        this.lightEntities.clear(); this.otherEntities.clear(); this.otherLevelsEntities.clear();
-        createHomeAssistantEntities(); buildLightsGroups(); buildScenes(); repositionEntities();
+        refreshHomeAssistantEntities();
 
         JOptionPane.showMessageDialog(null, entitiesToImport.size() + " entities have been imported.\nYou can now close the plugin and position them on your floorplan.", "Import Complete", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -2135,12 +2723,9 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         sh3dPiece.setDescription(haEntity.getFriendlyName());
         home.setModified(true); // Mark home as modified to save changes
 
-        // Rebuild all internal entity lists to reflect the new association
-        this.lightEntities.clear(); this.otherEntities.clear(); this.otherLevelsEntities.clear();
-        createHomeAssistantEntities(); // Re-scan the home for entities
-        buildLightsGroups(); // Rebuild groups
-        buildScenes(); // Rebuild scenes
-        repositionEntities(); // Re-calculate positions
+        // Update the internal entity lists to reflect the new association. Only the renamed piece's
+        // entity is created, and groups, scenes and positions are rebuilt if the lists changed
+        refreshHomeAssistantEntities();
     }
 
     public Room getRoomForEntity(Entity entity) {
@@ -2153,22 +2738,14 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         float furnitureCheckX = firstPiece.getX();
         float furnitureCheckY_depth = firstPiece.getY(); 
 
-        // Iterate through all rooms. For each room, check if the furniture's 2D (X, Y-depth)
-        // coordinates fall within the room's 2D area by testing against the room's floor level.
-        for (Room room : home.getRooms()) {
-            // Ensure we are checking rooms on the same level as the furniture piece.
-            if (firstPiece.getLevel() == room.getLevel()) {
-                // For the Z coordinate in containsPoint, use the room's floor elevation.
-                // Add a very small epsilon to ensure the point is slightly above the floor plane,
-                // which can help with floating point precision in some containment checks.
-                float roomFloorZ = room.getLevel().getElevation() + 0.01f; 
-
-                if (room.containsPoint(furnitureCheckX, furnitureCheckY_depth, roomFloorZ)) {
-                    return room;
-                }
-            }
-        }
-        return null; // Entity not found in any room
+        // Look up the rooms on the same level as the furniture piece, checking if the furniture's
+        // 2D (X, Y-depth) coordinates fall within the room's 2D area by testing against the room's floor level.
+        // For the Z coordinate in containsPoint, use the room's floor elevation.
+        // Add a very small epsilon to ensure the point is slightly above the floor plane,
+        // which can help with floating point precision in some containment checks.
+        float roomFloorZ = (firstPiece.getLevel() != null ? firstPiece.getLevel().getElevation() : 0) + 0.01f;
+
+        return roomIndex.getRoomAt(firstPiece.getLevel(), furnitureCheckX, furnitureCheckY_depth, roomFloorZ);
     }
 
     /**
@@ -2181,12 +2758,7 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
         if (piece == null || piece.getLevel() == null) {
             return null;
         }
-        for (Room room : home.getRooms()) {
-            if (room.getLevel() == piece.getLevel() && room.containsPoint(piece.getX(), piece.getY(), piece.getLevel().getElevation() + 0.01f)) {
-                return room;
-            }
-        }
-        return null;
+        return roomIndex.getRoomAt(piece.getLevel(), piece.getX(), piece.getY(), piece.getLevel().getElevation() + 0.01f);
     }
 
 
@@ -2212,12 +2784,14 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
     }
 
     private void calculateHouseNdcBounds() {
-        if (home == null || perspectiveTransform == null || cameraPosition == null) {
+        if (home == null || !projection.isValid()) {
             this.houseNdcBounds = null;
             return;
         }
 
-        List<Vector4d> allHousePoints = new ArrayList<>();
+        // Packed (x, elevation, depth) triplets of all room corners, grown as needed
+        double[] allHousePoints = new double[64 * 3];
+        int pointCount = 0;
         boolean allLevelsVisible = home.getEnvironment().isAllLevelsVisible();
         com.eteks.sweethome3d.model.Level selectedLevel = home.getSelectedLevel();
 
@@ -2238,36 +2812,39 @@ public Controller(Home home, UserPreferences preferences, ResourceBundle resourc
                 actualRoomHeight = home.getWallHeight();
             }
             float roomCeilingElevation = roomBaseElevation + actualRoomHeight;
-
-            for (float[] p2d : room.getPoints()) {
-                allHousePoints.add(new Vector4d(p2d[0], roomBaseElevation, p2d[1], 1.0));
-                if (actualRoomHeight > 0 && room.isCeilingVisible()) { 
-                     allHousePoints.add(new Vector4d(p2d[0], roomCeilingElevation, p2d[1], 1.0));
+            boolean includeCeiling = actualRoomHeight > 0 && room.isCeilingVisible();
+
+            float[][] roomPoints = room.getPoints();
+            int roomPointCount = roomPoints.length * (includeCeiling ? 2 : 1);
+            if ((pointCount + roomPointCount) * 3 > allHousePoints.length)
+                allHousePoints = Arrays.copyOf(allHousePoints, Math.max(allHousePoints.length * 2, (pointCount + roomPointCount) * 3));
+            for (float[] p2d : roomPoints) {
+                pointCount = putPoint(allHousePoints, pointCount, p2d[0], roomBaseElevation, p2d[1]);
+                if (includeCeiling) {
+                    pointCount = putPoint(allHousePoints, pointCount, p2d[0], roomCeilingElevation, p2d[1]);
                 }
             }
         }
 
-        if (allHousePoints.isEmpty()) {
+        if (pointCount == 0) {
             this.houseNdcBounds = createDefaultNdcBounds();
             System.err.println("Warning: No points found to calculate house NDC bounds. Defaulting to full view.");
             return;
         }
 
+        double[] ndc = new double[pointCount * 2];
+        projection.project(allHousePoints, pointCount, ndc);
+
         double minNdcX = Double.POSITIVE_INFINITY, maxNdcX = Double.NEGATIVE_INFINITY;
         double minNdcY = Double.POSITIVE_INFINITY, maxNdcY = Double.NEGATIVE_INFINITY;
 
-        for (Vector4d worldPos : allHousePoints) {
-            Vector4d ndcPos = new Vector4d(worldPos);
-            ndcPos.sub(cameraPosition);
-            perspectiveTransform.transform(ndcPos);
-
-            if (ndcPos.w == 0 || Double.isNaN(ndcPos.w) || Double.isInfinite(ndcPos.w)) continue;
-            ndcPos.scale(1.0 / ndcPos.w); 
+        for (int i = 0; i < pointCount; i++) {
+            if (Double.isNaN(ndc[i * 2])) continue;
 
-            minNdcX = Math.min(minNdcX, ndcPos.x);
-            maxNdcX = Math.max(maxNdcX, ndcPos.x);
-            minNdcY = Math.min(minNdcY, ndcPos.y);
-            maxNdcY = Math.max(maxNdcY, ndcPos.y);
+            minNdcX = Math.min(minNdcX, ndc[i * 2]);
+            maxNdcX = Math.max(maxNdcX, ndc[i * 2]);
+            minNdcY = Math.min(minNdcY, ndc[i * 2 + 1]);
+            maxNdcY = Math.max(maxNdcY, ndc[i * 2 + 1]);
         }
         
         if (Double.isInfinite(minNdcX) || Double.isInfinite(maxNdcX) || 
@@ -3,7 +3,6 @@ package com.shmuelzon.HomeAssistantFloorPlan;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
@@ -100,6 +99,7 @@ public class Entity implements Comparable<Entity> {
     private boolean isRgb;
     private Map<HomeLight, Float> initialPower;
     private Settings settings;
+    private EntitySettings entitySettings;
     private boolean isUserDefinedPosition;
     private PropertyChangeSupport propertyChangeSupport;
     private double defaultIconBadgeBaseSizePercent;
@@ -128,11 +128,29 @@ public class Entity implements Comparable<Entity> {
         loadDefaultAttributes();
     }
 
-    // Helper method to create unique setting keys
-    private String getSettingKey(String settingSuffix) {
+    // Helper method to create the unique key of this entity's settings
+    private String getSettingsKey() {
         // this.name is the HA entity name (e.g., light.living_room)
         // this.id is the SH3D piece ID (e.g., "obj123")
-        return this.name + "_" + this.id + "." + settingSuffix;
+        return this.name + "_" + this.id;
+    }
+
+    /**
+     * Returns the unique key of the settings of an entity whose first piece is <code>piece</code>.
+     */
+    public static String getSettingsKey(HomePieceOfFurniture piece) {
+        String name = piece.getName();
+        if (name != null && name.contains("/"))
+            name = name.substring(0, name.indexOf('/'));
+        return name + "_" + piece.getId();
+    }
+
+    /**
+     * Reloads this entity's settings in the storage format currently selected,
+     * once they were migrated by {@link EntitySettings#migrate}.
+     */
+    public void migrateSettings() {
+        entitySettings = new EntitySettings(settings, getSettingsKey());
     }
 
     public void move(Vector2d direction) {
@@ -171,11 +189,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setDisplayType(DisplayType displayType) {
         this.displayType = displayType;
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_TYPE), displayType.name());
+        entitySettings.set(SETTING_NAME_DISPLAY_TYPE, displayType.name());
     }
 
     public boolean isDisplayTypeModified() {
-        return settings.get(getSettingKey(SETTING_NAME_DISPLAY_TYPE)) != null;
+        return entitySettings.get(SETTING_NAME_DISPLAY_TYPE) != null;
     }
     
     public DisplayOperator getDisplayOperator() {
@@ -184,7 +202,7 @@ public class Entity implements Comparable<Entity> {
 
     public void setDisplayOperator(DisplayOperator displayOperator) {
         this.displayOperator = displayOperator;
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_OPERATOR), displayOperator.name());
+        entitySettings.set(SETTING_NAME_DISPLAY_OPERATOR, displayOperator.name());
     }
     
     public String getDisplayValue() {
@@ -193,12 +211,12 @@ public class Entity implements Comparable<Entity> {
 
     public void setDisplayValue(String displayValue) {
         this.displayValue = displayValue;
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_VALUE), displayValue);
+        entitySettings.set(SETTING_NAME_DISPLAY_VALUE, displayValue);
     }
     
     public boolean isDisplayConditionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_DISPLAY_OPERATOR)) != null
-            || settings.get(getSettingKey(SETTING_NAME_DISPLAY_VALUE)) != null;
+        return entitySettings.get(SETTING_NAME_DISPLAY_OPERATOR) != null
+            || entitySettings.get(SETTING_NAME_DISPLAY_VALUE) != null;
     }
 
     public DisplayOperator getFurnitureDisplayOperator() {
@@ -207,7 +225,7 @@ public class Entity implements Comparable<Entity> {
 
     public void setFurnitureDisplayOperator(DisplayOperator furnitureDisplayOperator) {
         this.furnitureDisplayOperator = furnitureDisplayOperator;
-        settings.set(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR), furnitureDisplayOperator.name());
+        entitySettings.set(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR, furnitureDisplayOperator.name());
         propertyChangeSupport.firePropertyChange(Property.FURNITURE_DISPLAY_CONDITION.name(), null, furnitureDisplayOperator);
     }
 
@@ -217,13 +235,13 @@ public class Entity implements Comparable<Entity> {
 
     public void setFurnitureDisplayValue(String furnitureDisplayValue) {
         this.furnitureDisplayValue = furnitureDisplayValue;
-        settings.set(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_VALUE), furnitureDisplayValue);
+        entitySettings.set(SETTING_NAME_FURNITURE_DISPLAY_VALUE, furnitureDisplayValue);
         propertyChangeSupport.firePropertyChange(Property.FURNITURE_DISPLAY_CONDITION.name(), null, furnitureDisplayValue);
     }
     
     public boolean isFurnitureDisplayConditionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR)) != null
-            || settings.get(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_VALUE)) != null;
+        return entitySettings.get(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR) != null
+            || entitySettings.get(SETTING_NAME_FURNITURE_DISPLAY_VALUE) != null;
     }
 
     public Action getTapAction() {
@@ -232,11 +250,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setTapAction(Action tapAction) {
         this.tapAction = tapAction;
-        settings.set(getSettingKey(SETTING_NAME_TAP_ACTION), tapAction.name());
+        entitySettings.set(SETTING_NAME_TAP_ACTION, tapAction.name());
     }
 
     public boolean isTapActionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_TAP_ACTION)) != null;
+        return entitySettings.get(SETTING_NAME_TAP_ACTION) != null;
     }
 
     public String getTapActionValue() {
@@ -245,11 +263,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setTapActionValue(String tapActionValue) {
         this.tapActionValue = tapActionValue;
-        settings.set(getSettingKey(SETTING_NAME_TAP_ACTION_VALUE), tapActionValue);
+        entitySettings.set(SETTING_NAME_TAP_ACTION_VALUE, tapActionValue);
     }
 
     public boolean isTapActionValueModified() {
-        return settings.get(getSettingKey(SETTING_NAME_TAP_ACTION_VALUE)) != null;
+        return entitySettings.get(SETTING_NAME_TAP_ACTION_VALUE) != null;
     }
 
     public Action getDoubleTapAction() {
@@ -258,11 +276,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setDoubleTapAction(Action doubleTapAction) {
         this.doubleTapAction = doubleTapAction;
-        settings.set(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION), doubleTapAction.name());
+        entitySettings.set(SETTING_NAME_DOUBLE_TAP_ACTION, doubleTapAction.name());
     }
 
     public boolean isDoubleTapActionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION)) != null;
+        return entitySettings.get(SETTING_NAME_DOUBLE_TAP_ACTION) != null;
     }
 
     public String getDoubleTapActionValue() {
@@ -271,11 +289,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setDoubleTapActionValue(String doubleTapActionValue) {
         this.doubleTapActionValue = doubleTapActionValue;
-        settings.set(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE), doubleTapActionValue);
+        entitySettings.set(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE, doubleTapActionValue);
     }
 
     public boolean isDoubleTapActionValueModified() {
-        return settings.get(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE)) != null;
+        return entitySettings.get(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE) != null;
     }
 
     public Action getHoldAction() {
@@ -284,11 +302,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setHoldAction(Action holdAction) {
         this.holdAction = holdAction;
-        settings.set(getSettingKey(SETTING_NAME_HOLD_ACTION), holdAction.name());
+        entitySettings.set(SETTING_NAME_HOLD_ACTION, holdAction.name());
     }
 
     public boolean isHoldActionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_HOLD_ACTION)) != null;
+        return entitySettings.get(SETTING_NAME_HOLD_ACTION) != null;
     }
 
     public String getHoldActionValue() {
@@ -297,11 +315,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setHoldActionValue(String holdActionValue) {
         this.holdActionValue = holdActionValue;
-        settings.set(getSettingKey(SETTING_NAME_HOLD_ACTION_VALUE), holdActionValue);
+        entitySettings.set(SETTING_NAME_HOLD_ACTION_VALUE, holdActionValue);
     }
 
     public boolean isHoldActionValueModified() {
-        return settings.get(getSettingKey(SETTING_NAME_HOLD_ACTION_VALUE)) != null;
+        return entitySettings.get(SETTING_NAME_HOLD_ACTION_VALUE) != null;
     }
 
     public String getAssociatedFanEntityId() {
@@ -310,11 +328,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setAssociatedFanEntityId(String associatedFanEntityId) {
         this.associatedFanEntityId = associatedFanEntityId;
-        settings.set(getSettingKey(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID), associatedFanEntityId);
+        entitySettings.set(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID, associatedFanEntityId);
     }
 
     public boolean isAssociatedFanEntityIdModified() {
-        return settings.get(getSettingKey(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID)) != null;
+        return entitySettings.get(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID) != null;
     }
 
     public boolean getShowFanWhenOff() {
@@ -323,11 +341,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setShowFanWhenOff(boolean showFanWhenOff) {
         this.showFanWhenOff = showFanWhenOff;
-        settings.setBoolean(getSettingKey(SETTING_NAME_SHOW_FAN_WHEN_OFF), showFanWhenOff);
+        entitySettings.setBoolean(SETTING_NAME_SHOW_FAN_WHEN_OFF, showFanWhenOff);
     }
 
     public boolean isShowFanWhenOffModified() {
-        return settings.get(getSettingKey(SETTING_NAME_SHOW_FAN_WHEN_OFF)) != null;
+        return entitySettings.get(SETTING_NAME_SHOW_FAN_WHEN_OFF) != null;
     }
 
     public FanColor getFanColor() {
@@ -336,11 +354,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setFanColor(FanColor fanColor) {
         this.fanColor = fanColor;
-        settings.set(getSettingKey(SETTING_NAME_FAN_COLOR), fanColor.name());
+        entitySettings.set(SETTING_NAME_FAN_COLOR, fanColor.name());
     }
 
     public boolean isFanColorModified() {
-        return settings.get(getSettingKey(SETTING_NAME_FAN_COLOR)) != null;
+        return entitySettings.get(SETTING_NAME_FAN_COLOR) != null;
     }
 
     public boolean getShowBorderAndBackground() {
@@ -349,11 +367,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setShowBorderAndBackground(boolean showBorderAndBackground) {
         this.showBorderAndBackground = showBorderAndBackground;
-        settings.setBoolean(getSettingKey(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND), showBorderAndBackground);
+        entitySettings.setBoolean(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND, showBorderAndBackground);
     }
 
     public boolean isShowBorderAndBackgroundModified() {
-        return settings.get(getSettingKey(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND)) != null;
+        return entitySettings.get(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND) != null;
     }
 
     public boolean getAlwaysOn() {
@@ -363,12 +381,12 @@ public class Entity implements Comparable<Entity> {
     public void setAlwaysOn(boolean alwaysOn) {
         boolean oldAlwaysOn = this.alwaysOn;
         this.alwaysOn = alwaysOn;
-        settings.setBoolean(getSettingKey(SETTING_NAME_ALWAYS_ON), alwaysOn);
+        entitySettings.setBoolean(SETTING_NAME_ALWAYS_ON, alwaysOn);
         propertyChangeSupport.firePropertyChange(Property.ALWAYS_ON.name(), oldAlwaysOn, alwaysOn);
     }
 
     public boolean isAlwaysOnModified() {
-        return settings.get(getSettingKey(SETTING_NAME_ALWAYS_ON)) != null;
+        return entitySettings.get(SETTING_NAME_ALWAYS_ON) != null;
     }
 
     public boolean getIsRgb() {
@@ -378,12 +396,12 @@ public class Entity implements Comparable<Entity> {
     public void setIsRgb(boolean isRgb) {
         boolean oldIsRgb = this.isRgb;
         this.isRgb = isRgb;
-        settings.setBoolean(getSettingKey(SETTING_NAME_IS_RGB), isRgb);
+        entitySettings.setBoolean(SETTING_NAME_IS_RGB, isRgb);
         propertyChangeSupport.firePropertyChange(Property.IS_RGB.name(), oldIsRgb, isRgb);
     }
 
     public boolean isIsRgbModified() {
-        return settings.get(getSettingKey(SETTING_NAME_IS_RGB)) != null;
+        return entitySettings.get(SETTING_NAME_IS_RGB) != null;
     }
 
     public Point2d getPosition() {
@@ -400,14 +418,16 @@ public class Entity implements Comparable<Entity> {
         if (!savePersistent)
             return;
 
-        settings.setDouble(getSettingKey(SETTING_NAME_LEFT_POSITION), position.x);
-        settings.setDouble(getSettingKey(SETTING_NAME_TOP_POSITION), position.y);
+        entitySettings.runInBatch(() -> {
+            entitySettings.setDouble(SETTING_NAME_LEFT_POSITION, position.x);
+            entitySettings.setDouble(SETTING_NAME_TOP_POSITION, position.y);
+        });
         isUserDefinedPosition = true;
         propertyChangeSupport.firePropertyChange(Property.POSITION.name(), oldPosition, position);
     }
 
     public boolean isPositionModified() {
-        return settings.get(getSettingKey(SETTING_NAME_LEFT_POSITION)) != null;
+        return entitySettings.get(SETTING_NAME_LEFT_POSITION) != null;
     }
 
     public boolean getBlinking() {
@@ -416,11 +436,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setBlinking(boolean blinking) {
         this.blinking = blinking;
-        settings.setBoolean(getSettingKey(SETTING_NAME_BLINKING), blinking);
+        entitySettings.setBoolean(SETTING_NAME_BLINKING, blinking);
     }
 
     public boolean isBlinkingModified() {
-        return settings.get(getSettingKey(SETTING_NAME_BLINKING)) != null;
+        return entitySettings.get(SETTING_NAME_BLINKING) != null;
     }
     public int getOpacity() {
         return opacity;
@@ -428,11 +448,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setOpacity(int opacity) {
         this.opacity = opacity;
-        settings.setInteger(getSettingKey(SETTING_NAME_OPACITY), opacity);
+        entitySettings.setInteger(SETTING_NAME_OPACITY, opacity);
     }
 
     public boolean isOpacityModified() {
-        return settings.get(getSettingKey(SETTING_NAME_OPACITY)) != null;
+        return entitySettings.get(SETTING_NAME_OPACITY) != null;
     }
 
     public double getScaleFactor() {
@@ -442,7 +462,7 @@ public class Entity implements Comparable<Entity> {
     public void setScaleFactor(double scaleFactor) {
         double oldScaleFactor = this.scaleFactor;
         this.scaleFactor = scaleFactor;
-        settings.setDouble(getSettingKey(SETTING_NAME_SCALE_FACTOR), scaleFactor);
+        entitySettings.setDouble(SETTING_NAME_SCALE_FACTOR, scaleFactor);
         propertyChangeSupport.firePropertyChange(Property.SCALE_FACTOR.name(), oldScaleFactor, scaleFactor);
     }
 
@@ -452,7 +472,7 @@ public class Entity implements Comparable<Entity> {
 
     public void setExcludeFromOverlap(boolean excludeFromOverlap) {
         this.excludeFromOverlap = excludeFromOverlap;
-        settings.setBoolean(getSettingKey(SETTING_NAME_EXCLUDE_FROM_OVERLAP), excludeFromOverlap);
+        entitySettings.setBoolean(SETTING_NAME_EXCLUDE_FROM_OVERLAP, excludeFromOverlap);
     }
 
     public String getIconShadow() {
@@ -461,18 +481,18 @@ public class Entity implements Comparable<Entity> {
 
     public void setIconShadow(String iconShadow) {
         this.iconShadow = iconShadow;
-        settings.set(getSettingKey(SETTING_NAME_ICON_SHADOW), iconShadow);
+        entitySettings.set(SETTING_NAME_ICON_SHADOW, iconShadow);
     }
 
     public boolean isIconShadowModified() {
         // Check if the setting exists, which implies it has been modified from the default.
         // The default is not stored, so a non-null value means it's been set.
-        return settings.get(getSettingKey(SETTING_NAME_ICON_SHADOW)) != null;
+        return entitySettings.get(SETTING_NAME_ICON_SHADOW) != null;
     }
 
 
     public boolean isScaleFactorModified() {
-        return settings.get(getSettingKey(SETTING_NAME_SCALE_FACTOR)) != null;
+        return entitySettings.get(SETTING_NAME_SCALE_FACTOR) != null;
     }
 
     public String getBackgroundColor() {
@@ -481,11 +501,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setBackgroundColor(String backgroundColor) {
         this.backgroundColor = backgroundColor;
-        settings.set(getSettingKey(SETTING_NAME_BACKGROUND_COLOR), backgroundColor);
+        entitySettings.set(SETTING_NAME_BACKGROUND_COLOR, backgroundColor);
     }
 
     public boolean isBackgroundColorModified() {
-        return settings.get(getSettingKey(SETTING_NAME_BACKGROUND_COLOR)) != null;
+        return entitySettings.get(SETTING_NAME_BACKGROUND_COLOR) != null;
     }
 
     public ClickableAreaType getClickableAreaType() {
@@ -494,11 +514,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setClickableAreaType(ClickableAreaType clickableAreaType) {
         this.clickableAreaType = clickableAreaType;
-        settings.set(getSettingKey(SETTING_NAME_CLICKABLE_AREA_TYPE), clickableAreaType.name());
+        entitySettings.set(SETTING_NAME_CLICKABLE_AREA_TYPE, clickableAreaType.name());
     }
 
     public boolean isClickableAreaTypeModified() {
-        return settings.get(getSettingKey(SETTING_NAME_CLICKABLE_AREA_TYPE)) != null;
+        return entitySettings.get(SETTING_NAME_CLICKABLE_AREA_TYPE) != null;
     }
 
     public FanSize getFanSize() {
@@ -507,11 +527,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setFanSize(FanSize fanSize) {
         this.fanSize = fanSize;
-        settings.set(getSettingKey(SETTING_NAME_FAN_SIZE), fanSize.name());
+        entitySettings.set(SETTING_NAME_FAN_SIZE, fanSize.name());
     }
 
     public boolean isFanSizeModified() {
-        return settings.get(getSettingKey(SETTING_NAME_FAN_SIZE)) != null;
+        return entitySettings.get(SETTING_NAME_FAN_SIZE) != null;
     }
 
     public int getFanOpacity() {
@@ -520,11 +540,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setFanOpacity(int fanOpacity) {
         this.fanOpacity = fanOpacity;
-        settings.setInteger(getSettingKey(SETTING_NAME_FAN_OPACITY), fanOpacity);
+        entitySettings.setInteger(SETTING_NAME_FAN_OPACITY, fanOpacity);
     }
 
     public boolean isFanOpacityModified() {
-        return settings.get(getSettingKey(SETTING_NAME_FAN_OPACITY)) != null;
+        return entitySettings.get(SETTING_NAME_FAN_OPACITY) != null;
     }
 
     public double getDefaultIconBadgeBaseSizePercent() {
@@ -538,11 +558,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setLabelColor(String labelColor) {
         this.labelColor = labelColor;
-        settings.set(getSettingKey(SETTING_NAME_LABEL_COLOR), labelColor);
+        entitySettings.set(SETTING_NAME_LABEL_COLOR, labelColor);
     }
 
     public boolean isLabelColorModified() {
-        return settings.get(getSettingKey(SETTING_NAME_LABEL_COLOR)) != null;
+        return entitySettings.get(SETTING_NAME_LABEL_COLOR) != null;
     }
 
     public String getLabelTextShadow() {
@@ -551,11 +571,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setLabelTextShadow(String labelTextShadow) {
         this.labelTextShadow = labelTextShadow;
-        settings.set(getSettingKey(SETTING_NAME_LABEL_TEXT_SHADOW), labelTextShadow);
+        entitySettings.set(SETTING_NAME_LABEL_TEXT_SHADOW, labelTextShadow);
     }
 
     public boolean isLabelTextShadowModified() {
-        return settings.get(getSettingKey(SETTING_NAME_LABEL_TEXT_SHADOW)) != null;
+        return entitySettings.get(SETTING_NAME_LABEL_TEXT_SHADOW) != null;
     }
 
     public String getLabelFontWeight() {
@@ -564,11 +584,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setLabelFontWeight(String labelFontWeight) {
         this.labelFontWeight = labelFontWeight;
-        settings.set(getSettingKey(SETTING_NAME_LABEL_FONT_WEIGHT), labelFontWeight);
+        entitySettings.set(SETTING_NAME_LABEL_FONT_WEIGHT, labelFontWeight);
     }
 
     public boolean isLabelFontWeightModified() {
-        return settings.get(getSettingKey(SETTING_NAME_LABEL_FONT_WEIGHT)) != null;
+        return entitySettings.get(SETTING_NAME_LABEL_FONT_WEIGHT) != null;
     }
 
     public String getLabelSuffix() {
@@ -577,11 +597,11 @@ public class Entity implements Comparable<Entity> {
 
     public void setLabelSuffix(String labelSuffix) {
         this.labelSuffix = labelSuffix;
-        settings.set(getSettingKey(SETTING_NAME_LABEL_SUFFIX), labelSuffix);
+        entitySettings.set(SETTING_NAME_LABEL_SUFFIX, labelSuffix);
     }
 
     public boolean isLabelSuffixModified() {
-        return settings.get(getSettingKey(SETTING_NAME_LABEL_SUFFIX)) != null;
+        return entitySettings.get(SETTING_NAME_LABEL_SUFFIX) != null;
     }
 
     public void resetToDefaults() {
@@ -591,38 +611,41 @@ public class Entity implements Comparable<Entity> {
 
         double oldScaleFactor = scaleFactor; // Store old scaleFactor
 
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_TYPE), null);
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_OPERATOR), null);
-        settings.set(getSettingKey(SETTING_NAME_DISPLAY_VALUE), null);
-        settings.set(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR), null);
-        settings.set(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_VALUE), null);
-        settings.set(getSettingKey(SETTING_NAME_TAP_ACTION), null);
-        settings.set(getSettingKey(SETTING_NAME_TAP_ACTION_VALUE), null);
-        settings.set(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION), null);
-        settings.set(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE), null);
-        settings.set(getSettingKey(SETTING_NAME_HOLD_ACTION), null);
-        settings.set(getSettingKey(SETTING_NAME_HOLD_ACTION_VALUE), null);
-        settings.set(getSettingKey(SETTING_NAME_ALWAYS_ON), null);
-        settings.set(getSettingKey(SETTING_NAME_IS_RGB), null);
-        settings.set(getSettingKey(SETTING_NAME_LEFT_POSITION), null);
-        settings.set(getSettingKey(SETTING_NAME_TOP_POSITION), null);
-        settings.set(getSettingKey(SETTING_NAME_BLINKING), null);
-        settings.set(getSettingKey(SETTING_NAME_OPACITY), null);
-        settings.set(getSettingKey(SETTING_NAME_BACKGROUND_COLOR), null);
-        settings.set(getSettingKey(SETTING_NAME_SCALE_FACTOR), null);
-        settings.set(getSettingKey(SETTING_NAME_CLICKABLE_AREA_TYPE), null); // Reset clickable area type
-        settings.set(getSettingKey(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID), null);
-        settings.set(getSettingKey(SETTING_NAME_SHOW_FAN_WHEN_OFF), null);
-        settings.set(getSettingKey(SETTING_NAME_FAN_COLOR), null);
-        settings.set(getSettingKey(SETTING_NAME_FAN_SIZE), null); // Reset FanSize
-        settings.set(getSettingKey(SETTING_NAME_FAN_OPACITY), null);
-        settings.set(getSettingKey(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND), null);
-        settings.set(getSettingKey(SETTING_NAME_LABEL_COLOR), null);
-        settings.set(getSettingKey(SETTING_NAME_LABEL_TEXT_SHADOW), null);
-        settings.set(getSettingKey(SETTING_NAME_LABEL_FONT_WEIGHT), null);
-        settings.set(getSettingKey(SETTING_NAME_LABEL_SUFFIX), null);
-        settings.set(getSettingKey(SETTING_NAME_EXCLUDE_FROM_OVERLAP), null);
-        settings.set(getSettingKey(SETTING_NAME_ICON_SHADOW), null);
+        // Written at once, so the home is only marked as modified once
+        entitySettings.runInBatch(() -> {
+            entitySettings.set(SETTING_NAME_DISPLAY_TYPE, null);
+            entitySettings.set(SETTING_NAME_DISPLAY_OPERATOR, null);
+            entitySettings.set(SETTING_NAME_DISPLAY_VALUE, null);
+            entitySettings.set(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR, null);
+            entitySettings.set(SETTING_NAME_FURNITURE_DISPLAY_VALUE, null);
+            entitySettings.set(SETTING_NAME_TAP_ACTION, null);
+            entitySettings.set(SETTING_NAME_TAP_ACTION_VALUE, null);
+            entitySettings.set(SETTING_NAME_DOUBLE_TAP_ACTION, null);
+            entitySettings.set(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE, null);
+            entitySettings.set(SETTING_NAME_HOLD_ACTION, null);
+            entitySettings.set(SETTING_NAME_HOLD_ACTION_VALUE, null);
+            entitySettings.set(SETTING_NAME_ALWAYS_ON, null);
+            entitySettings.set(SETTING_NAME_IS_RGB, null);
+            entitySettings.set(SETTING_NAME_LEFT_POSITION, null);
+            entitySettings.set(SETTING_NAME_TOP_POSITION, null);
+            entitySettings.set(SETTING_NAME_BLINKING, null);
+            entitySettings.set(SETTING_NAME_OPACITY, null);
+            entitySettings.set(SETTING_NAME_BACKGROUND_COLOR, null);
+            entitySettings.set(SETTING_NAME_SCALE_FACTOR, null);
+            entitySettings.set(SETTING_NAME_CLICKABLE_AREA_TYPE, null); // Reset clickable area type
+            entitySettings.set(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID, null);
+            entitySettings.set(SETTING_NAME_SHOW_FAN_WHEN_OFF, null);
+            entitySettings.set(SETTING_NAME_FAN_COLOR, null);
+            entitySettings.set(SETTING_NAME_FAN_SIZE, null); // Reset FanSize
+            entitySettings.set(SETTING_NAME_FAN_OPACITY, null);
+            entitySettings.set(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND, null);
+            entitySettings.set(SETTING_NAME_LABEL_COLOR, null);
+            entitySettings.set(SETTING_NAME_LABEL_TEXT_SHADOW, null);
+            entitySettings.set(SETTING_NAME_LABEL_FONT_WEIGHT, null);
+            entitySettings.set(SETTING_NAME_LABEL_SUFFIX, null);
+            entitySettings.set(SETTING_NAME_EXCLUDE_FROM_OVERLAP, null);
+            entitySettings.set(SETTING_NAME_ICON_SHADOW, null);
+        });
         loadDefaultAttributes();
 
         propertyChangeSupport.firePropertyChange(Property.ALWAYS_ON.name(), oldAlwaysOn, alwaysOn);
@@ -677,7 +700,7 @@ public class Entity implements Comparable<Entity> {
         return yaml;
     }
 
-    public List<String> buildYaml(Controller controller) { // Pass controller to get room bounds
+    public void writeYaml(Controller controller, YamlWriter yaml) throws IOException, InterruptedException { // Pass controller to get room bounds
         final Map<DisplayType, String> displayTypeToYamlString = new HashMap<DisplayType, String>() {{
             put(DisplayType.BADGE, "state-badge");
             put(DisplayType.ICON, "state-icon");
@@ -693,10 +716,9 @@ public class Entity implements Comparable<Entity> {
         // Use the new displayOperator logic
         // If the entity is configured to never be displayed, or is an "always on" light (which has no icon)
         if (this.displayOperator == DisplayOperator.NEVER || getAlwaysOn()) {
-            return new ArrayList<>(); // Return empty list if never displayed
+            return; // Nothing to write if never displayed
         }
 
-        List<String> elements = new ArrayList<>(); // This will hold all generated YAML elements for this entity
         List<String> conditionalElements = new ArrayList<>(); // Elements that go inside a conditional block
 
          //Determine if this entity needs a separate background element for its border/background
@@ -1044,7 +1066,7 @@ public class Entity implements Comparable<Entity> {
                     // ensureEntityTransparentImageGenerated prepends "transparent_" internally
                     controller.ensureEntityTransparentImageGenerated(baseNameForImage, pngWidthPx, pngHeightPx);
                     // renderHash needs the full name of the file that was created
-                    String transparentImageHash = controller.renderHash(fullImageName, true);
+                    String transparentImageHash = WriteBehindQueue.await(controller.renderHash(fullImageName, true));
                     // The path for Home Assistant also needs the full name
                     String transparentImagePath = "/local/floorplan/" + fullImageName + ".png?version=" + transparentImageHash;
 
@@ -1077,14 +1099,12 @@ public class Entity implements Comparable<Entity> {
             }
         } 
 
-        // Add clickable area as a separate element if it exists
-        if (!clickableAreaYaml.isEmpty()) {
-            elements.add(clickableAreaYaml);
-        }
-
         // Handle ALWAYS operator or alwaysOn flag explicitly
         if (this.displayOperator == DisplayOperator.ALWAYS || getAlwaysOn()) { // Consider alwaysOn as well
-            elements.addAll(conditionalElements); // Add main visual elements directly
+            // Clickable area goes as a separate element before the main visual elements
+            yaml.write(clickableAreaYaml);
+            for (String element : conditionalElements)
+                yaml.write(element);
         } else {
             // If not ALWAYS and not forced by alwaysOn, then apply the conditional logic.
             String conditionAttributePart = (this.attribute != null && !this.attribute.isEmpty())
@@ -1131,28 +1151,24 @@ public class Entity implements Comparable<Entity> {
                     break;
                 default:
                     // This case should ideally not be reached if ALWAYS/NEVER are handled above.
-                    // If it is reached, it means an unhandled operator. Return empty list.
+                    // If it is reached, it means an unhandled operator. Write nothing.
                     System.err.println("Warning: Unhandled display operator for entity " + name + ": " + this.displayOperator);
-                    return new ArrayList<>();
+                    return;
             }
 
-            // Indent all elements that go inside the conditional block
-            String indentedConditionalElements = conditionalElements.stream()
-                                                    .map(s -> s.replaceAll("(?m)^", "    ")) // Add 4 spaces to each line
-                                                    .collect(Collectors.joining());
-
-            String conditionalBlock = String.format(
+            yaml.write(clickableAreaYaml);
+            yaml.format(
                 "  - type: conditional\n" +
                 "%s\n" +
-                "    elements:\n" +
-                "%s",
-                conditionYaml, // Use the generated conditionYaml
-                indentedConditionalElements
-            );
-            elements.add(conditionalBlock);
-        }
+                "    elements:\n",
+                conditionYaml); // Use the generated conditionYaml
 
-        return elements; // Return the list of all generated elements
+            // Indent all elements that go inside the conditional block
+            yaml.indent(4);
+            for (String element : conditionalElements)
+                yaml.write(element);
+            yaml.unindent();
+        }
     }
 
     /**
@@ -1224,9 +1240,9 @@ public class Entity implements Comparable<Entity> {
 
     private <T extends Enum<T>> T getSavedEnumValue(Class<T> type, String name, T defaultValue) {
         try {
-            return Enum.valueOf(type, settings.get(name, defaultValue.name()));
+            return Enum.valueOf(type, entitySettings.get(name, defaultValue.name()));
         } catch (IllegalArgumentException e) {
-            settings.set(name, null);
+            entitySettings.set(name, null);
         }
         return defaultValue;
     }
@@ -1244,43 +1260,44 @@ public class Entity implements Comparable<Entity> {
             this.name = rawPieceName;
             this.attribute = null;
         }
+        entitySettings = new EntitySettings(settings, getSettingsKey());
         position = loadPosition();
-        displayType = getSavedEnumValue(DisplayType.class, getSettingKey(SETTING_NAME_DISPLAY_TYPE), defaultDisplayType());
+        displayType = getSavedEnumValue(DisplayType.class, SETTING_NAME_DISPLAY_TYPE, defaultDisplayType());
         
-        displayOperator = getSavedEnumValue(DisplayOperator.class, getSettingKey(SETTING_NAME_DISPLAY_OPERATOR), DisplayOperator.ALWAYS);
-        displayValue = settings.get(getSettingKey(SETTING_NAME_DISPLAY_VALUE), "");
+        displayOperator = getSavedEnumValue(DisplayOperator.class, SETTING_NAME_DISPLAY_OPERATOR, DisplayOperator.ALWAYS);
+        displayValue = entitySettings.get(SETTING_NAME_DISPLAY_VALUE, "");
         
-        furnitureDisplayOperator = getSavedEnumValue(DisplayOperator.class, getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_OPERATOR), DisplayOperator.ALWAYS);
+        furnitureDisplayOperator = getSavedEnumValue(DisplayOperator.class, SETTING_NAME_FURNITURE_DISPLAY_OPERATOR, DisplayOperator.ALWAYS);
         // --- MODIFIED: Default to an empty string to prevent OutOfMemoryError ---
-        furnitureDisplayValue = settings.get(getSettingKey(SETTING_NAME_FURNITURE_DISPLAY_VALUE), "");
-        clickableAreaType = getSavedEnumValue(ClickableAreaType.class, getSettingKey(SETTING_NAME_CLICKABLE_AREA_TYPE), ClickableAreaType.ENTITY_SIZE);
-
-        tapAction = getSavedEnumValue(Action.class, getSettingKey(SETTING_NAME_TAP_ACTION), defaultAction());
-        tapActionValue = settings.get(getSettingKey(SETTING_NAME_TAP_ACTION_VALUE), "");
-        doubleTapAction = getSavedEnumValue(Action.class, getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION), Action.NONE);
-        doubleTapActionValue = settings.get(getSettingKey(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE), "");
-        holdAction = getSavedEnumValue(Action.class, getSettingKey(SETTING_NAME_HOLD_ACTION), Action.MORE_INFO);
-        holdActionValue = settings.get(getSettingKey(SETTING_NAME_HOLD_ACTION_VALUE), "");
-        blinking = settings.getBoolean(getSettingKey(SETTING_NAME_BLINKING), false);
+        furnitureDisplayValue = entitySettings.get(SETTING_NAME_FURNITURE_DISPLAY_VALUE, "");
+        clickableAreaType = getSavedEnumValue(ClickableAreaType.class, SETTING_NAME_CLICKABLE_AREA_TYPE, ClickableAreaType.ENTITY_SIZE);
+
+        tapAction = getSavedEnumValue(Action.class, SETTING_NAME_TAP_ACTION, defaultAction());
+        tapActionValue = entitySettings.get(SETTING_NAME_TAP_ACTION_VALUE, "");
+        doubleTapAction = getSavedEnumValue(Action.class, SETTING_NAME_DOUBLE_TAP_ACTION, Action.NONE);
+        doubleTapActionValue = entitySettings.get(SETTING_NAME_DOUBLE_TAP_ACTION_VALUE, "");
+        holdAction = getSavedEnumValue(Action.class, SETTING_NAME_HOLD_ACTION, Action.MORE_INFO);
+        holdActionValue = entitySettings.get(SETTING_NAME_HOLD_ACTION_VALUE, "");
+        blinking = entitySettings.getBoolean(SETTING_NAME_BLINKING, false);
         title = firstPiece.getDescription();
-        opacity = settings.getInteger(getSettingKey(SETTING_NAME_OPACITY), 100);
-        backgroundColor = settings.get(getSettingKey(SETTING_NAME_BACKGROUND_COLOR), "rgba(0, 0, 0, 0.5)");
-        scaleFactor = settings.getDouble(getSettingKey(SETTING_NAME_SCALE_FACTOR), 1.0);
-        alwaysOn = settings.getBoolean(getSettingKey(SETTING_NAME_ALWAYS_ON), false);
-        associatedFanEntityId = settings.get(getSettingKey(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID), "");
-        fanColor = getSavedEnumValue(FanColor.class, getSettingKey(SETTING_NAME_FAN_COLOR), FanColor.FOUR_BLADE_CEILING_BLACK); // Default to 4 Blade Ceiling Black
-        showFanWhenOff = settings.getBoolean(getSettingKey(SETTING_NAME_SHOW_FAN_WHEN_OFF), true);
-        fanSize = getSavedEnumValue(FanSize.class, getSettingKey(SETTING_NAME_FAN_SIZE), FanSize.MEDIUM);
-        fanOpacity = settings.getInteger(getSettingKey(SETTING_NAME_FAN_OPACITY), 100);
-        showBorderAndBackground = settings.getBoolean(getSettingKey(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND), false); // Default to false
-        labelColor = settings.get(getSettingKey(SETTING_NAME_LABEL_COLOR), "white"); // Default to "white" for better contrast with dark backgrounds
-        labelTextShadow = settings.get(getSettingKey(SETTING_NAME_LABEL_TEXT_SHADOW), "");
-        labelFontWeight = settings.get(getSettingKey(SETTING_NAME_LABEL_FONT_WEIGHT), "normal"); // Default to "normal"
-        labelSuffix = settings.get(getSettingKey(SETTING_NAME_LABEL_SUFFIX), "");
-
-        iconShadow = settings.get(getSettingKey(SETTING_NAME_ICON_SHADOW), "none"); // Default to "none"
-        excludeFromOverlap = settings.getBoolean(getSettingKey(SETTING_NAME_EXCLUDE_FROM_OVERLAP), false);
-        isRgb = settings.getBoolean(getSettingKey(SETTING_NAME_IS_RGB), false);
+        opacity = entitySettings.getInteger(SETTING_NAME_OPACITY, 100);
+        backgroundColor = entitySettings.get(SETTING_NAME_BACKGROUND_COLOR, "rgba(0, 0, 0, 0.5)");
+        scaleFactor = entitySettings.getDouble(SETTING_NAME_SCALE_FACTOR, 1.0);
+        alwaysOn = entitySettings.getBoolean(SETTING_NAME_ALWAYS_ON, false);
+        associatedFanEntityId = entitySettings.get(SETTING_NAME_ASSOCIATED_FAN_ENTITY_ID, "");
+        fanColor = getSavedEnumValue(FanColor.class, SETTING_NAME_FAN_COLOR, FanColor.FOUR_BLADE_CEILING_BLACK); // Default to 4 Blade Ceiling Black
+        showFanWhenOff = entitySettings.getBoolean(SETTING_NAME_SHOW_FAN_WHEN_OFF, true);
+        fanSize = getSavedEnumValue(FanSize.class, SETTING_NAME_FAN_SIZE, FanSize.MEDIUM);
+        fanOpacity = entitySettings.getInteger(SETTING_NAME_FAN_OPACITY, 100);
+        showBorderAndBackground = entitySettings.getBoolean(SETTING_NAME_SHOW_BORDER_AND_BACKGROUND, false); // Default to false
+        labelColor = entitySettings.get(SETTING_NAME_LABEL_COLOR, "white"); // Default to "white" for better contrast with dark backgrounds
+        labelTextShadow = entitySettings.get(SETTING_NAME_LABEL_TEXT_SHADOW, "");
+        labelFontWeight = entitySettings.get(SETTING_NAME_LABEL_FONT_WEIGHT, "normal"); // Default to "normal"
+        labelSuffix = entitySettings.get(SETTING_NAME_LABEL_SUFFIX, "");
+
+        iconShadow = entitySettings.get(SETTING_NAME_ICON_SHADOW, "none"); // Default to "none"
+        excludeFromOverlap = entitySettings.getBoolean(SETTING_NAME_EXCLUDE_FROM_OVERLAP, false);
+        isRgb = entitySettings.getBoolean(SETTING_NAME_IS_RGB, false);
         
         // Determine if this Entity represents a light based on its HA name or if any associated SH3D piece is a HomeLight
         boolean hasAnySh3dLightPiece = false;
@@ -1352,8 +1369,8 @@ public class Entity implements Comparable<Entity> {
     }
 
     private Point2d loadPosition() {
-        double leftPosition = settings.getDouble(getSettingKey(SETTING_NAME_LEFT_POSITION), -1);
-        double topPosition = settings.getDouble(getSettingKey(SETTING_NAME_TOP_POSITION), -1);
+        double leftPosition = entitySettings.getDouble(SETTING_NAME_LEFT_POSITION, -1);
+        double topPosition = entitySettings.getDouble(SETTING_NAME_TOP_POSITION, -1);
         if (leftPosition != -1 || topPosition != -1) {
             isUserDefinedPosition = true;
             return new Point2d(leftPosition, topPosition);
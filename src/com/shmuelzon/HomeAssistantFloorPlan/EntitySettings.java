@@ -0,0 +1,156 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The settings of a single entity. By default, each setting is stored in its
+ * own home property, named after the entity and the setting. With compact
+ * storage enabled, all the settings of an entity are stored together in a
+ * single property instead, which keeps homes with many entities small and
+ * quick to load. Settings stored in the other format are migrated for all the
+ * entities of a home at once, see {@link #migrate(Settings, Collection)}.
+ */
+public class EntitySettings {
+    private final Settings settings;
+    private final String key;
+    private final boolean compact;
+
+    /**
+     * @param key unique key of the entity, used to name the properties it's stored in
+     */
+    public EntitySettings(Settings settings, String key) {
+        this.settings = settings;
+        this.key = key;
+        compact = settings.getBoolean(Settings.CONTROLLER_COMPACT_ENTITY_SETTINGS, false);
+    }
+
+    private String getPropertyName(String name) {
+        return key + "." + name;
+    }
+
+    private Map<String, String> getValues() {
+        Map<String, String> values = settings.getMap(key);
+        return values == null ? Collections.emptyMap() : values;
+    }
+
+    /**
+     * Migrates the settings of the entities with the given <code>keys</code> to
+     * the storage format currently selected. The home's settings are only looked
+     * through once for all the entities, so this should be called once for the
+     * whole home rather than for each entity.
+     */
+    public static void migrate(Settings settings, Collection<String> keys) {
+        boolean compact = settings.getBoolean(Settings.CONTROLLER_COMPACT_ENTITY_SETTINGS, false);
+        Set<String> keySet = new HashSet<>(keys);
+        settings.runInBatch(() -> {
+            if (compact) {
+                // Group the settings stored in their own property by the entity they belong to
+                Map<String, Map<String, String>> valuesByKey = new HashMap<>();
+                for (String propertyName : settings.getNames("")) {
+                    String key = findKey(propertyName, keySet);
+                    if (key == null)
+                        continue;
+                    valuesByKey.computeIfAbsent(key, k -> new LinkedHashMap<>())
+                        .put(propertyName.substring(key.length() + 1), settings.get(propertyName));
+                    settings.set(propertyName, null);
+                }
+                for (Map.Entry<String, Map<String, String>> entry : valuesByKey.entrySet()) {
+                    Map<String, String> values = entry.getValue();
+                    Map<String, String> compactValues = settings.getMap(entry.getKey());
+                    if (compactValues != null)
+                        values.putAll(compactValues);
+                    settings.setMap(entry.getKey(), values);
+                }
+            } else {
+                for (String key : keySet) {
+                    Map<String, String> values = settings.getMap(key);
+                    if (values == null)
+                        continue;
+                    for (Map.Entry<String, String> entry : values.entrySet())
+                        settings.set(key + "." + entry.getKey(), entry.getValue());
+                    settings.set(key, null);
+                }
+            }
+        });
+    }
+
+    private static String findKey(String propertyName, Set<String> keys) {
+        // Keys may contain dots themselves (e.g. "light.kitchen_obj1"), so each one is tried
+        for (int dot = propertyName.indexOf('.'); dot >= 0; dot = propertyName.indexOf('.', dot + 1)) {
+            String key = propertyName.substring(0, dot);
+            if (keys.contains(key))
+                return key;
+        }
+        return null;
+    }
+
+    public String get(String name, String defaultValue) {
+        String value = get(name);
+        if (value == null)
+            return defaultValue;
+        return value;
+    }
+
+    public String get(String name) {
+        if (compact)
+            return getValues().get(name);
+        return settings.get(getPropertyName(name));
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        if (compact)
+            return Boolean.valueOf(get(name, String.valueOf(defaultValue)));
+        return settings.getBoolean(getPropertyName(name), defaultValue);
+    }
+
+    public int getInteger(String name, int defaultValue) {
+        if (compact)
+            return Integer.valueOf(get(name, String.valueOf(defaultValue)));
+        return settings.getInteger(getPropertyName(name), defaultValue);
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        if (compact)
+            return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+        return settings.getDouble(getPropertyName(name), defaultValue);
+    }
+
+    public void set(String name, String value) {
+        if (!compact) {
+            settings.set(getPropertyName(name), value);
+            return;
+        }
+        Map<String, String> values = new LinkedHashMap<>(getValues());
+        if (value == null)
+            values.remove(name);
+        else
+            values.put(name, value);
+        settings.setMap(key, values);
+    }
+
+    public void setBoolean(String name, boolean value) {
+        set(name, String.valueOf(value));
+    }
+
+    public void setInteger(String name, int value) {
+        set(name, String.valueOf(value));
+    }
+
+    public void setDouble(String name, double value) {
+        set(name, String.valueOf(value));
+    }
+
+    /**
+     * See {@link Settings#runInBatch(Runnable)}.
+     */
+    public void runInBatch(Runnable updates) {
+        settings.runInBatch(updates);
+    }
+}
@@ -0,0 +1,159 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Spreads overlapping circles apart while keeping each one close to its
+ * anchor. Every circle is pushed away from the circles it overlaps, in
+ * proportion to the overlap, and pulled back to its anchor by a spring.
+ * The step size grows while the energy of the system keeps decreasing and
+ * shrinks when it doesn't, and the solver stops as soon as no circle moves
+ * by more than the tolerance.
+ */
+public class ForceDirectedLayout {
+    private static final double REPULSION = 1.0;
+    private static final double SPRING = 0.05;
+    private static final double MARGIN = 0.20;
+    private static final double MAX_STEP = 0.5;
+    private static final double STEP_DECAY = 0.9;
+    private static final int PROGRESS_STEPS = 5;
+    private static final int MAX_ITERATIONS = 500;
+    private static final double TOLERANCE = 0.1;
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    private final double[] anchorX;
+    private final double[] anchorY;
+    private final double[] radii;
+    private final boolean[] fixed;
+    private final double[] x;
+    private final double[] y;
+    private int iterations;
+    private double residual;
+
+    /**
+     * @param anchorX horizontal position each circle is pulled back to
+     * @param anchorY vertical position each circle is pulled back to
+     * @param radii radius of each circle, in the same units as the positions
+     * @param fixed circles that never move, but still push others away
+     */
+    public ForceDirectedLayout(double[] anchorX, double[] anchorY, double[] radii, boolean[] fixed) {
+        this.anchorX = anchorX;
+        this.anchorY = anchorY;
+        this.radii = radii;
+        this.fixed = fixed;
+        x = Arrays.copyOf(anchorX, anchorX.length);
+        y = Arrays.copyOf(anchorY, anchorY.length);
+    }
+
+    public void solve() {
+        int count = radii.length;
+        Integer[] nodes = new Integer[count];
+        double maxRadius = 0;
+        for (int i = 0; i < count; i++) {
+            nodes[i] = i;
+            maxRadius = Math.max(maxRadius, radii[i]);
+        }
+        // Circles further apart than the largest required distance never overlap
+        SpatialGrid<Integer> grid = new SpatialGrid<>(maxRadius * 2.0 * (1.0 + MARGIN) * 1.05);
+        List<Integer> nearbyNodes = new ArrayList<>();
+        double[] forceX = new double[count];
+        double[] forceY = new double[count];
+        double step = MAX_STEP;
+        double previousEnergy = Double.POSITIVE_INFINITY;
+        int progress = 0;
+
+        iterations = 0;
+        residual = 0;
+        while (iterations < MAX_ITERATIONS) {
+            iterations++;
+            for (int i = 0; i < count; i++)
+                grid.put(nodes[i], x[i], y[i]);
+
+            double energy = 0;
+            for (int i = 0; i < count; i++) {
+                forceX[i] = 0;
+                forceY[i] = 0;
+                if (fixed[i])
+                    continue;
+
+                double fx = SPRING * (anchorX[i] - x[i]);
+                double fy = SPRING * (anchorY[i] - y[i]);
+                nearbyNodes.clear();
+                grid.forEachNear(x[i], y[i], nearbyNodes::add);
+                for (int j : nearbyNodes) {
+                    if (j == i)
+                        continue;
+                    double requiredDist = (radii[i] + radii[j]) * (1.0 + MARGIN);
+                    double dx = x[i] - x[j];
+                    double dy = y[i] - y[j];
+                    double distSq = dx * dx + dy * dy;
+                    if (distSq >= requiredDist * requiredDist)
+                        continue;
+                    double dist = Math.sqrt(distSq);
+                    if (dist == 0) {
+                        // Coincident circles get a deterministic direction, different for each of them
+                        dx = Math.cos(GOLDEN_ANGLE * i);
+                        dy = Math.sin(GOLDEN_ANGLE * i);
+                    } else {
+                        dx /= dist;
+                        dy /= dist;
+                    }
+                    double overlap = requiredDist - dist;
+                    fx += REPULSION * overlap * dx;
+                    fy += REPULSION * overlap * dy;
+                }
+                forceX[i] = fx;
+                forceY[i] = fy;
+                energy += fx * fx + fy * fy;
+            }
+
+            if (energy < previousEnergy) {
+                if (++progress >= PROGRESS_STEPS) {
+                    progress = 0;
+                    step = Math.min(step / STEP_DECAY, MAX_STEP);
+                }
+            } else {
+                progress = 0;
+                step *= STEP_DECAY;
+            }
+            previousEnergy = energy;
+
+            residual = 0;
+            for (int i = 0; i < count; i++) {
+                double moveX = step * forceX[i];
+                double moveY = step * forceY[i];
+                x[i] += moveX;
+                y[i] += moveY;
+                residual = Math.max(residual, Math.sqrt(moveX * moveX + moveY * moveY));
+            }
+            if (residual < TOLERANCE)
+                break;
+        }
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Largest distance a circle moved in the last iteration.
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    public boolean isConverged() {
+        return residual < TOLERANCE;
+    }
+}
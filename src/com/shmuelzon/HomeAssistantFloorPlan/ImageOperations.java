@@ -0,0 +1,158 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Pixel operations on rendered images, working directly on the packed int
+ * rasters in row-major order and split in parallel row bands.
+ */
+public class ImageOperations {
+    private static final int ROWS_PER_BAND = 32;
+    private static final int[] RED_TINT = new int[256];
+
+    static {
+        // The HSB brightness of a pixel is its highest component, so the tint only depends on it
+        for (int brightness = 0; brightness < RED_TINT.length; brightness++)
+            RED_TINT[brightness] = Color.getHSBColor(1.0f, 0.75f, brightness / 255.0f).getRGB();
+    }
+
+    private ImageOperations() {
+    }
+
+    /**
+     * A packed ARGB view of an image. Images not backed by a single int array
+     * (e.g. ones read back from disk) are converted once.
+     */
+    private static class Pixels {
+        public final int[] data;
+        public final int alpha;
+
+        public Pixels(BufferedImage image) {
+            int width = image.getWidth();
+            int type = image.getType();
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && isPacked(image)) {
+                data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+                alpha = type == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+            } else {
+                data = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+                alpha = 0;
+            }
+        }
+
+        private static boolean isPacked(BufferedImage image) {
+            return image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel)image.getRaster().getSampleModel()).getScanlineStride() == image.getWidth()
+                && image.getRaster().getDataBuffer().getOffset() == 0
+                && image.getRaster().getMinX() == 0 && image.getRaster().getMinY() == 0
+                && image.getRaster().getParent() == null;
+        }
+    }
+
+    private interface RowOperation {
+        void apply(int firstRow, int lastRow);
+    }
+
+    private static class RowBands extends RecursiveAction {
+        private final RowOperation operation;
+        private final int firstRow;
+        private final int lastRow;
+
+        public RowBands(RowOperation operation, int firstRow, int lastRow) {
+            this.operation = operation;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastRow - firstRow <= ROWS_PER_BAND) {
+                operation.apply(firstRow, lastRow);
+                return;
+            }
+            int middleRow = (firstRow + lastRow) >>> 1;
+            invokeAll(new RowBands(operation, firstRow, middleRow), new RowBands(operation, middleRow, lastRow));
+        }
+    }
+
+    private static void forEachRowBand(int height, RowOperation operation) {
+        ForkJoinPool.commonPool().invoke(new RowBands(operation, 0, height));
+    }
+
+    private static int redTint(int argb) {
+        if (argb == 0)
+            return 0;
+        int red = (argb >> 16) & 0xff;
+        int green = (argb >> 8) & 0xff;
+        int blue = argb & 0xff;
+        return RED_TINT[Math.max(red, Math.max(green, blue))];
+    }
+
+    private static int[] getWritableData(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB || !Pixels.isPacked(image))
+            throw new IllegalArgumentException("Expected a TYPE_INT_ARGB image");
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Fills <code>redTintedImage</code>, a TYPE_INT_ARGB image of the same size as
+     * <code>image</code>, with a red tinted version of it keeping its brightness.
+     */
+    public static void redTint(BufferedImage image, BufferedImage redTintedImage) {
+        final int width = image.getWidth();
+        final Pixels source = new Pixels(image);
+        final int[] tinted = getWritableData(redTintedImage);
+
+        forEachRowBand(image.getHeight(), (firstRow, lastRow) -> {
+            for (int i = firstRow * width, end = lastRow * width; i < end; i++)
+                tinted[i] = redTint(source.data[i] | source.alpha);
+        });
+    }
+
+    /**
+     * Returns a transparent image holding only the pixels of <code>image</code>
+     * that differ from <code>baseImage</code> by more than <code>sensitivity</code>.
+     */
+    public static BufferedImage overlayDifference(BufferedImage baseImage, BufferedImage image, int sensitivity) {
+        return overlayDifference(baseImage, image, sensitivity, null);
+    }
+
+    /**
+     * Same as {@link #overlayDifference(BufferedImage, BufferedImage, int)}, also filling
+     * <code>redTintedImage</code> (if not <code>null</code>) with the red tinted overlay
+     * in the same pass.
+     */
+    public static BufferedImage overlayDifference(BufferedImage baseImage, BufferedImage image, int sensitivity, BufferedImage redTintedImage) {
+        final int width = baseImage.getWidth();
+        final int height = baseImage.getHeight();
+        final Pixels base = new Pixels(baseImage);
+        final Pixels lit = new Pixels(image);
+        final BufferedImage overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final int[] overlayData = ((DataBufferInt)overlay.getRaster().getDataBuffer()).getData();
+        final int[] tinted = redTintedImage != null ? getWritableData(redTintedImage) : null;
+        final int threshold = sensitivity * 3;
+
+        forEachRowBand(height, (firstRow, lastRow) -> {
+            for (int i = firstRow * width, end = lastRow * width; i < end; i++) {
+                int first = base.data[i];
+                int second = lit.data[i];
+                int diff =
+                    Math.abs((first & 0xff) - (second & 0xff)) +
+                    Math.abs(((first >> 8) & 0xff) - ((second >> 8) & 0xff)) +
+                    Math.abs(((first >> 16) & 0xff) - ((second >> 16) & 0xff));
+                // Same as diff / 3 > sensitivity, without the division
+                int pixel = diff >= threshold + 3 ? second | lit.alpha : 0;
+                overlayData[i] = pixel;
+                if (tinted != null)
+                    tinted[i] = redTint(pixel);
+            }
+        });
+
+        return overlay;
+    }
+}
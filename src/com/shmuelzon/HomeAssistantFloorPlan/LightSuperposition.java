@@ -0,0 +1,75 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+
+/**
+ * Synthesizes the render of several lights turned on together out of the
+ * renders of each light on its own. Light transport is additive, so once
+ * converted to linear RGB, the combined image is the base (ambient) image
+ * plus the contribution each light adds on top of it.
+ */
+public class LightSuperposition {
+    private static final int LINEAR_TO_SRGB_STEPS = 4096;
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+    private static final int[] LINEAR_TO_SRGB = new int[LINEAR_TO_SRGB_STEPS + 1];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double c = i / 255.0;
+            SRGB_TO_LINEAR[i] = (float)(c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+        }
+        for (int i = 0; i < LINEAR_TO_SRGB.length; i++) {
+            double c = (double)i / LINEAR_TO_SRGB_STEPS;
+            double srgb = c <= 0.0031308 ? c * 12.92 : 1.055 * Math.pow(c, 1 / 2.4) - 0.055;
+            LINEAR_TO_SRGB[i] = (int)Math.round(srgb * 255);
+        }
+    }
+
+    private LightSuperposition() {
+    }
+
+    public static BufferedImage combine(BufferedImage baseImage, List<BufferedImage> lightImages) {
+        int width = baseImage.getWidth();
+        int height = baseImage.getHeight();
+        int[] base = baseImage.getRGB(0, 0, width, height, null, 0, width);
+        float[] red = new float[base.length];
+        float[] green = new float[base.length];
+        float[] blue = new float[base.length];
+
+        for (int i = 0; i < base.length; i++) {
+            red[i] = SRGB_TO_LINEAR[(base[i] >> 16) & 0xff];
+            green[i] = SRGB_TO_LINEAR[(base[i] >> 8) & 0xff];
+            blue[i] = SRGB_TO_LINEAR[base[i] & 0xff];
+        }
+
+        int[] light = new int[base.length];
+        for (BufferedImage lightImage : lightImages) {
+            lightImage.getRGB(0, 0, width, height, light, 0, width);
+            for (int i = 0; i < base.length; i++) {
+                int l = light[i];
+                int b = base[i];
+                red[i] += SRGB_TO_LINEAR[(l >> 16) & 0xff] - SRGB_TO_LINEAR[(b >> 16) & 0xff];
+                green[i] += SRGB_TO_LINEAR[(l >> 8) & 0xff] - SRGB_TO_LINEAR[(b >> 8) & 0xff];
+                blue[i] += SRGB_TO_LINEAR[l & 0xff] - SRGB_TO_LINEAR[b & 0xff];
+            }
+        }
+
+        int[] combined = light;
+        for (int i = 0; i < base.length; i++)
+            combined[i] = 0xff000000 | (toSrgb(red[i]) << 16) | (toSrgb(green[i]) << 8) | toSrgb(blue[i]);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, combined, 0, width);
+        return image;
+    }
+
+    private static int toSrgb(float linear) {
+        if (linear <= 0)
+            return 0;
+        if (linear >= 1)
+            return 255;
+        return LINEAR_TO_SRGB[Math.round(linear * LINEAR_TO_SRGB_STEPS)];
+    }
+}
@@ -23,6 +23,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.time.Instant;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -140,9 +141,16 @@ public class Panel extends JPanel implements DialogView {
     private JList<Long> renderTimesList;
     private JLabel imageFormatLabel;
     private JComboBox<Controller.ImageFormat> imageFormatComboBox;
+    private JLabel iconLayoutLabel;
+    private JComboBox<Controller.IconLayout> iconLayoutComboBox;
     private JButton outputDirectoryBrowseButton;
     private FileContentManager outputDirectoryChooser;
     private JCheckBox useExistingRendersCheckbox;
+    private JCheckBox lightSuperpositionCheckbox;
+    private JCheckBox compactEntitySettingsCheckbox;
+    private JCheckBox progressivePreviewCheckbox;
+    private JLabel renderThreadsLabel;
+    private JSpinner renderThreadsSpinner;
     private JProgressBar progressBar;
     private JButton startButton;
     private JButton closeButton;
@@ -316,20 +324,31 @@ public class Panel extends JPanel implements DialogView {
         }
     }
 
+    /**
+     * A preview image along with the index of the entities drawn on it.
+     */
+    private static class PreviewPass {
+        private final BufferedImage image;
+        private final PreviewHitIndex hitIndex;
+
+        public PreviewPass(BufferedImage image, PreviewHitIndex hitIndex) {
+            this.image = image;
+            this.hitIndex = hitIndex;
+        }
+    }
+
     private class ImagePanel extends JPanel {
         private BufferedImage image;
+        private PreviewHitIndex hitIndex;
 
-        public ImagePanel(BufferedImage image) {
-            this.image = image;
-            // The preferred size of this panel should be the size of the image.
-            // This is crucial for JScrollPane to work correctly.
-            this.setPreferredSize(new Dimension(image.getWidth(), image.getHeight()));
+        public ImagePanel(PreviewPass preview) {
+            setPreview(preview);
 
             addMouseMotionListener(new MouseAdapter() {
                 @Override
                 public void mouseMoved(MouseEvent e) {
                     // The mouse coordinates (e.getPoint()) are now directly relative to the image.
-                    List<Entity> entitiesAtPoint = controller.getEntitiesAtPoint(e.getPoint());
+                    List<Entity> entitiesAtPoint = hitIndex.getEntitiesAt(e.getPoint());
                     if (!entitiesAtPoint.isEmpty()) {
                         List<String> entityNames = entitiesAtPoint.stream()
                                                                 .map(Entity::getName)
@@ -345,6 +364,20 @@ public class Panel extends JPanel implements DialogView {
             });
         }
 
+        public void setPreview(PreviewPass preview) {
+            this.image = preview.image;
+            // Indexed along with the image, as the entities are looked up on every mouse move
+            this.hitIndex = preview.hitIndex;
+            // The preferred size of this panel should be the size of the image.
+            // This is crucial for JScrollPane to work correctly.
+            Dimension size = new Dimension(image.getWidth(), image.getHeight());
+            if (!size.equals(getPreferredSize())) {
+                setPreferredSize(size);
+                revalidate();
+            }
+            repaint();
+        }
+
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
@@ -492,19 +525,37 @@ public class Panel extends JPanel implements DialogView {
                 previewButton.setEnabled(false);
                 setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                new SwingWorker<BufferedImage, Void>() {
+                new SwingWorker<Void, PreviewPass>() {
+                    private ImagePanel imagePanel;
+
                     @Override
-                    protected BufferedImage doInBackground() throws Exception {
-                        return controller.generatePreviewImage();
+                    protected Void doInBackground() throws Exception {
+                        controller.generateProgressivePreviewImage((image, hitIndex) -> publish(new PreviewPass(image, hitIndex)));
+                        return null;
+                    }
+
+                    @Override
+                    protected void process(List<PreviewPass> passes) {
+                        // Only the latest pass is of interest, in case several completed at once
+                        PreviewPass preview = passes.get(passes.size() - 1);
+                        if (imagePanel != null) {
+                            imagePanel.setPreview(preview);
+                            return;
+                        }
+                        imagePanel = new ImagePanel(preview);
+                        setCursor(Cursor.getDefaultCursor());
+                        // Returns once the dialog is closed, meanwhile the next passes refine the shown image
+                        showPreviewDialog(imagePanel, resource.getString("HomeAssistantFloorPlan.Panel.previewButton.text"));
+                        cancel(true);
+                        controller.stopPreview();
                     }
 
                     @Override
                     protected void done() {
                         try {
-                            final BufferedImage previewImage = get(); // Get result from doInBackground
-                            if (previewImage != null) {
-                                showPreviewDialog(previewImage, resource.getString("HomeAssistantFloorPlan.Panel.previewButton.text"));
-                            }
+                            get();
+                        } catch (CancellationException ex) {
+                            // The preview dialog was closed before all passes completed
                         } catch (InterruptedException ex) {
                             Thread.currentThread().interrupt();
                             // Optionally inform user: JOptionPane.showMessageDialog(Panel.this, "Preview rendering was interrupted.", "Interrupted", JOptionPane.WARNING_MESSAGE);
@@ -541,18 +592,19 @@ public class Panel extends JPanel implements DialogView {
                 previewDayButton.setEnabled(false);
                 setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                new SwingWorker<BufferedImage, Void>() {
+                new SwingWorker<PreviewPass, Void>() {
                     @Override
-                    protected BufferedImage doInBackground() throws Exception {
-                        return controller.generateBaseImagePreview(lastCalculatedDayTimestamp);
+                    protected PreviewPass doInBackground() throws Exception {
+                        BufferedImage image = controller.generateBaseImagePreview(lastCalculatedDayTimestamp);
+                        return new PreviewPass(image, controller.createPreviewHitIndex());
                     }
 
                     @Override
                     protected void done() {
                         try {
-                            final BufferedImage previewImage = get();
-                            if (previewImage != null) {
-                                showPreviewDialog(previewImage, resource.getString("HomeAssistantFloorPlan.Panel.previewDayButton.text"));
+                            final PreviewPass preview = get();
+                            if (preview.image != null) {
+                                showPreviewDialog(new ImagePanel(preview), resource.getString("HomeAssistantFloorPlan.Panel.previewDayButton.text"));
                             }
                         } catch (InterruptedException ex) {
                             Thread.currentThread().interrupt();
@@ -576,18 +628,19 @@ public class Panel extends JPanel implements DialogView {
                 previewNightButton.setEnabled(false);
                 setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                new SwingWorker<BufferedImage, Void>() {
+                new SwingWorker<PreviewPass, Void>() {
                     @Override
-                    protected BufferedImage doInBackground() throws Exception {
-                        return controller.generateBaseImagePreview(lastCalculatedNightTimestamp);
+                    protected PreviewPass doInBackground() throws Exception {
+                        BufferedImage image = controller.generateBaseImagePreview(lastCalculatedNightTimestamp);
+                        return new PreviewPass(image, controller.createPreviewHitIndex());
                     }
 
                     @Override
                     protected void done() {
                         try {
-                            final BufferedImage previewImage = get();
-                            if (previewImage != null) {
-                                showPreviewDialog(previewImage, resource.getString("HomeAssistantFloorPlan.Panel.previewNightButton.text"));
+                            final PreviewPass preview = get();
+                            if (preview.image != null) {
+                                showPreviewDialog(new ImagePanel(preview), resource.getString("HomeAssistantFloorPlan.Panel.previewNightButton.text"));
                             }
                         } catch (InterruptedException ex) {
                             Thread.currentThread().interrupt();
@@ -606,8 +659,8 @@ public class Panel extends JPanel implements DialogView {
         });
     }
 
-    private void showPreviewDialog(BufferedImage image, String title) {
-        final ImagePanel imagePanel = new ImagePanel(image);
+    private void showPreviewDialog(ImagePanel imagePanel, String title) {
+        BufferedImage image = imagePanel.image;
         JScrollPane scrollPane = new JScrollPane(imagePanel);
         int prefWidth = Math.min(1024, image.getWidth()) + 40; // Cap width at 1024px + padding
         int prefHeight = Math.min(1024, image.getHeight()) + 40; // Cap height at 1024px + padding
@@ -1184,6 +1237,35 @@ public class Panel extends JPanel implements DialogView {
         });
         makeClickableToOpenDropdown(imageFormatComboBox);
 
+        iconLayoutLabel = new JLabel();
+        iconLayoutLabel.setText(resource.getString("HomeAssistantFloorPlan.Panel.iconLayoutLabel.text"));
+        iconLayoutLabel.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.iconLayoutLabel.tooltip"));
+        iconLayoutComboBox = new JComboBox<Controller.IconLayout>(Controller.IconLayout.values());
+        iconLayoutComboBox.setSelectedItem(controller.getIconLayout());
+        iconLayoutComboBox.setEditable(true);
+        JTextField iconLayoutEditor = (JTextField) iconLayoutComboBox.getEditor().getEditorComponent();
+        iconLayoutEditor.setEditable(false);
+        iconLayoutEditor.setFocusable(false);
+        if (controller.getIconLayout() != null) {
+            String initialDisplayText = resource.getString(String.format("HomeAssistantFloorPlan.Panel.iconLayoutComboBox.%s.text", controller.getIconLayout().name()));
+            iconLayoutEditor.setText(initialDisplayText);
+        }
+        iconLayoutComboBox.setRenderer(new DefaultListCellRenderer() {
+            public Component getListCellRendererComponent(JList<?> jList, Object o, int i, boolean b, boolean b1) {
+                Component rendererComponent = super.getListCellRendererComponent(jList, o, i, b, b1);
+                setText(resource.getString(String.format("HomeAssistantFloorPlan.Panel.iconLayoutComboBox.%s.text", ((Controller.IconLayout)o).name())));
+                return rendererComponent;
+            }
+        });
+        iconLayoutComboBox.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ev) {
+                Controller.IconLayout selectedLayout = (Controller.IconLayout)iconLayoutComboBox.getSelectedItem();
+                controller.setIconLayout(selectedLayout);
+                updateComboBoxEditorText(iconLayoutComboBox, "HomeAssistantFloorPlan.Panel.iconLayoutComboBox.%s.text", selectedLayout);
+            }
+        });
+        makeClickableToOpenDropdown(iconLayoutComboBox);
+
         useExistingRendersCheckbox = new JCheckBox();
         useExistingRendersCheckbox.setText(resource.getString("HomeAssistantFloorPlan.Panel.useExistingRenders.text"));
         useExistingRendersCheckbox.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.useExistingRenders.tooltip"));
@@ -1194,6 +1276,49 @@ public class Panel extends JPanel implements DialogView {
             }
         });
 
+        lightSuperpositionCheckbox = new JCheckBox();
+        lightSuperpositionCheckbox.setText(resource.getString("HomeAssistantFloorPlan.Panel.lightSuperposition.text"));
+        lightSuperpositionCheckbox.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.lightSuperposition.tooltip"));
+        lightSuperpositionCheckbox.setSelected(controller.getLightSuperposition());
+        lightSuperpositionCheckbox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                controller.setLightSuperposition(lightSuperpositionCheckbox.isSelected());
+            }
+        });
+
+        compactEntitySettingsCheckbox = new JCheckBox();
+        compactEntitySettingsCheckbox.setText(resource.getString("HomeAssistantFloorPlan.Panel.compactEntitySettings.text"));
+        compactEntitySettingsCheckbox.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.compactEntitySettings.tooltip"));
+        compactEntitySettingsCheckbox.setSelected(controller.getCompactEntitySettings());
+        compactEntitySettingsCheckbox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                controller.setCompactEntitySettings(compactEntitySettingsCheckbox.isSelected());
+            }
+        });
+
+        progressivePreviewCheckbox = new JCheckBox();
+        progressivePreviewCheckbox.setText(resource.getString("HomeAssistantFloorPlan.Panel.progressivePreview.text"));
+        progressivePreviewCheckbox.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.progressivePreview.tooltip"));
+        progressivePreviewCheckbox.setSelected(controller.getProgressivePreview());
+        progressivePreviewCheckbox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                controller.setProgressivePreview(progressivePreviewCheckbox.isSelected());
+            }
+        });
+
+        renderThreadsLabel = new JLabel();
+        renderThreadsLabel.setText(resource.getString("HomeAssistantFloorPlan.Panel.renderThreadsLabel.text"));
+        renderThreadsLabel.setToolTipText(resource.getString("HomeAssistantFloorPlan.Panel.renderThreadsLabel.tooltip"));
+        final SpinnerNumberModel renderThreadsSpinnerModel = new SpinnerNumberModel(1, 1,
+            Math.max(controller.getRenderThreads(), Runtime.getRuntime().availableProcessors()), 1);
+        renderThreadsSpinner = new AutoCommitSpinner(renderThreadsSpinnerModel);
+        renderThreadsSpinnerModel.setValue(controller.getRenderThreads());
+        renderThreadsSpinner.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent ev) {
+              controller.setRenderThreads(((Number)renderThreadsSpinner.getValue()).intValue());
+            }
+        });
+
         outputDirectoryLabel = new JLabel();
         outputDirectoryLabel.setText(resource.getString("HomeAssistantFloorPlan.Panel.outputDirectoryLabel.text"));
         outputDirectoryTextField = new JTextField();
@@ -1273,9 +1398,14 @@ public class Panel extends JPanel implements DialogView {
         addDayNightButton.setEnabled(enabled);
         renderTimesList.setEnabled(enabled);;
         imageFormatComboBox.setEnabled(enabled);
+        iconLayoutComboBox.setEnabled(enabled);
         outputDirectoryTextField.setEnabled(enabled);
         outputDirectoryBrowseButton.setEnabled(enabled);
         useExistingRendersCheckbox.setEnabled(enabled);
+        lightSuperpositionCheckbox.setEnabled(enabled);
+        compactEntitySettingsCheckbox.setEnabled(enabled);
+        progressivePreviewCheckbox.setEnabled(enabled);
+        renderThreadsSpinner.setEnabled(enabled);
         previewButton.setEnabled(enabled);
         previewDayButton.setEnabled(enabled); // Initial state, will be refined by updatePreviewDayNightButtonsState
         previewNightButton.setEnabled(enabled); // Initial state, will be refined by updatePreviewDayNightButtonsState
@@ -1400,6 +1530,16 @@ public class Panel extends JPanel implements DialogView {
         add(sensitivitySpinner, new GridBagConstraints(3, currentGridYIndex, 1, 1, 0.5, 0, GridBagConstraints.CENTER, GridBagConstraints.HORIZONTAL, insets, 0, 0));
         currentGridYIndex++;
 
+        /* Icon layout */
+        add(iconLayoutLabel, new GridBagConstraints(
+            0, currentGridYIndex, 1, 1, 0, 0, GridBagConstraints.CENTER,
+            GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        iconLayoutLabel.setHorizontalAlignment(labelAlignment);
+        add(iconLayoutComboBox, new GridBagConstraints(
+            1, currentGridYIndex, 3, 1, 1.0, 0, GridBagConstraints.LINE_START,
+            GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        currentGridYIndex++;
+
         /* Render Date and Time */
         add(renderDateLabel, new GridBagConstraints(
             0, currentGridYIndex, 1, 1, 0, 0, GridBagConstraints.CENTER,
@@ -1451,6 +1591,20 @@ public class Panel extends JPanel implements DialogView {
 
         /* Options */
         add(useExistingRendersCheckbox, new GridBagConstraints(
+            0, currentGridYIndex, 2, 1, 0, 0, GridBagConstraints.LINE_START,
+            GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        add(renderThreadsLabel, new GridBagConstraints(2, currentGridYIndex, 1, 1, 0.0, 0, GridBagConstraints.CENTER, GridBagConstraints.NONE, insets, 0, 0));
+        add(renderThreadsSpinner, new GridBagConstraints(3, currentGridYIndex, 1, 1, 0.5, 0, GridBagConstraints.CENTER, GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        currentGridYIndex++;
+        add(lightSuperpositionCheckbox, new GridBagConstraints(
+            0, currentGridYIndex, 4, 1, 0, 0, GridBagConstraints.LINE_START,
+            GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        currentGridYIndex++;
+        add(compactEntitySettingsCheckbox, new GridBagConstraints(
+            0, currentGridYIndex, 4, 1, 0, 0, GridBagConstraints.LINE_START,
+            GridBagConstraints.HORIZONTAL, insets, 0, 0));
+        currentGridYIndex++;
+        add(progressivePreviewCheckbox, new GridBagConstraints(
             0, currentGridYIndex, 4, 1, 0, 0, GridBagConstraints.LINE_START,
             GridBagConstraints.HORIZONTAL, insets, 0, 0));
         currentGridYIndex++;
@@ -1501,6 +1655,7 @@ public class Panel extends JPanel implements DialogView {
             @Override
             public void windowClosed(WindowEvent ev) {
                 currentPanel = null;
+                controller.dispose();
             }
             @Override
             public void windowClosing(WindowEvent ev) {
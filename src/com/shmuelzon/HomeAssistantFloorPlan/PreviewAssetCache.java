@@ -0,0 +1,138 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Images drawn on the preview. Resources are decoded once and kept for the
+ * whole session, while the icons, tinted and scaled to the size they're
+ * drawn at, are kept in a size bounded atlas from which the least recently
+ * used ones are evicted. Drawing an entity on the preview is then a plain
+ * copy of an image that's ready to be drawn.
+ */
+public class PreviewAssetCache {
+    private static final String RESOURCES_PATH = "/com/shmuelzon/HomeAssistantFloorPlan/resources/";
+
+    private final long maxAtlasBytes;
+    private final Map<String, BufferedImage> resources = new HashMap<>();
+    private final Map<AtlasKey, BufferedImage> atlas = new LinkedHashMap<>(16, 0.75f, true);
+    private long atlasBytes;
+
+    private static class AtlasKey {
+        private final String resourceName;
+        private final Color tint;
+        private final int width;
+        private final int height;
+
+        AtlasKey(String resourceName, Color tint, int width, int height) {
+            this.resourceName = resourceName;
+            this.tint = tint;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AtlasKey))
+                return false;
+            AtlasKey other = (AtlasKey)o;
+            return resourceName.equals(other.resourceName) && Objects.equals(tint, other.tint) &&
+                width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resourceName, tint, width, height);
+        }
+    }
+
+    /**
+     * @param maxAtlasBytes the memory the tinted and scaled images may use
+     */
+    public PreviewAssetCache(long maxAtlasBytes) {
+        this.maxAtlasBytes = maxAtlasBytes;
+    }
+
+    /**
+     * Returns the image <code>resourceName</code>, relative to the plugin's
+     * resources directory, or null if it couldn't be loaded.
+     */
+    public synchronized BufferedImage getResource(String resourceName) {
+        if (resources.containsKey(resourceName))
+            return resources.get(resourceName);
+
+        BufferedImage image = null;
+        try (InputStream input = getClass().getResourceAsStream(RESOURCES_PATH + resourceName)) {
+            if (input != null)
+                image = ImageIO.read(input);
+            if (image == null)
+                System.err.println("Warning: Could not load preview image " + resourceName);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not load preview image " + resourceName + ": " + e.getMessage());
+        }
+        // Missing images are remembered as well, so they're only looked for once
+        resources.put(resourceName, image);
+        return image;
+    }
+
+    /**
+     * Returns the image <code>resourceName</code> scaled to <code>width</code>x<code>height</code>
+     * and, unless <code>tint</code> is null, filled with <code>tint</code> where it's opaque.
+     * Returns null if the image couldn't be loaded.
+     */
+    public synchronized BufferedImage getImage(String resourceName, Color tint, int width, int height) {
+        if (width <= 0 || height <= 0)
+            return null;
+        AtlasKey key = new AtlasKey(resourceName, tint, width, height);
+        BufferedImage image = atlas.get(key);
+        if (image != null)
+            return image;
+
+        BufferedImage resource = getResource(resourceName);
+        if (resource == null)
+            return null;
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(resource, 0, 0, width, height, null);
+        if (tint != null) {
+            g2d.setComposite(AlphaComposite.SrcAtop); // Apply tint only where image pixels are opaque
+            g2d.setColor(tint);
+            g2d.fillRect(0, 0, width, height);
+        }
+        g2d.dispose();
+
+        atlas.put(key, image);
+        atlasBytes += getBytes(image);
+        evict();
+        return image;
+    }
+
+    private void evict() {
+        Iterator<BufferedImage> images = atlas.values().iterator();
+        // Always keep the image that was just added, even if it's larger than the whole atlas
+        while (atlasBytes > maxAtlasBytes && atlas.size() > 1) {
+            atlasBytes -= getBytes(images.next());
+            images.remove();
+        }
+    }
+
+    private static long getBytes(BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight() * 4;
+    }
+}
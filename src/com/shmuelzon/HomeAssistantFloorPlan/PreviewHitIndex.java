@@ -0,0 +1,78 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Finds the entities drawn at a point of a preview. The preview is divided
+ * into a grid of cells, each listing the entities whose box overlaps it, so
+ * only these are tested. When all the boxes overlapping a cell cover it
+ * entirely, the entities are the same at any point of the cell, and the list
+ * is returned as is.
+ */
+public class PreviewHitIndex {
+    private static final int CELL_SIZE = 16;
+
+    private final int columns;
+    private final int rows;
+    private final List<List<Entity>> cellEntities = new ArrayList<>();
+    private final List<List<Rectangle>> cellBoxes = new ArrayList<>();
+    private final boolean[] cellCovered;
+
+    /**
+     * @param entities the entities drawn on the preview
+     * @param boxes the box of each entity, in the preview's pixels
+     */
+    public PreviewHitIndex(int width, int height, List<Entity> entities, List<Rectangle> boxes) {
+        columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+        cellCovered = new boolean[columns * rows];
+        for (int i = 0; i < columns * rows; i++) {
+            cellEntities.add(new ArrayList<>());
+            cellBoxes.add(new ArrayList<>());
+            cellCovered[i] = true;
+        }
+
+        for (int i = 0; i < entities.size(); i++) {
+            Rectangle box = boxes.get(i);
+            int firstColumn = Math.max(0, Math.floorDiv(box.x, CELL_SIZE));
+            int lastColumn = Math.min(columns - 1, Math.floorDiv(box.x + box.width - 1, CELL_SIZE));
+            int firstRow = Math.max(0, Math.floorDiv(box.y, CELL_SIZE));
+            int lastRow = Math.min(rows - 1, Math.floorDiv(box.y + box.height - 1, CELL_SIZE));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int cell = row * columns + column;
+                    cellEntities.get(cell).add(entities.get(i));
+                    cellBoxes.get(cell).add(box);
+                    cellCovered[cell] &= box.contains(new Rectangle(column * CELL_SIZE, row * CELL_SIZE, CELL_SIZE, CELL_SIZE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entities whose box contains <code>point</code>, in the order
+     * they were given in.
+     */
+    public List<Entity> getEntitiesAt(Point point) {
+        if (point.x < 0 || point.y < 0 || point.x >= columns * CELL_SIZE || point.y >= rows * CELL_SIZE)
+            return Collections.emptyList();
+
+        int cell = (point.y / CELL_SIZE) * columns + point.x / CELL_SIZE;
+        List<Entity> entities = cellEntities.get(cell);
+        if (cellCovered[cell])
+            return Collections.unmodifiableList(entities);
+
+        List<Rectangle> boxes = cellBoxes.get(cell);
+        List<Entity> foundEntities = new ArrayList<>();
+        for (int i = 0; i < entities.size(); i++) {
+            if (boxes.get(i).contains(point))
+                foundEntities.add(entities.get(i));
+        }
+        return foundEntities;
+    }
+}
@@ -0,0 +1,120 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Camera;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomeFurnitureGroup;
+import com.eteks.sweethome3d.model.HomeLight;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+import com.eteks.sweethome3d.model.Selectable;
+
+
+/**
+ * A photo renderer kept for previews while the plugin's dialog is open.
+ * Exporting the home to the renderer's scene is the slow part of a preview,
+ * so the scene is only exported for the first preview. The following ones
+ * only update the lights whose power changed and the furniture whose
+ * visibility changed since, while the camera and its time are given with
+ * each preview. All previews are rendered at low quality, and the scene is
+ * exported again once the renderer, the sky color or the content of the
+ * home change. Stopping a preview keeps the scene for the next one.
+ */
+public class PreviewRenderer {
+    private final Home home;
+    private volatile AbstractPhotoRenderer photoRenderer;
+    private String rendererClassName;
+    private long sceneVersion;
+    private int skyColor;
+    private final Map<HomeLight, Float> renderedPower = new IdentityHashMap<>();
+    private final Map<HomePieceOfFurniture, Boolean> renderedVisibility = new IdentityHashMap<>();
+
+    public PreviewRenderer(Home home) {
+        this.home = home;
+    }
+
+    /**
+     * Renders the home into <code>image</code>, reusing the scene of the previous
+     * preview if it was rendered with the same renderer and <code>sceneVersion</code>,
+     * a number the caller changes when the content of the home changes.
+     */
+    public synchronized void render(BufferedImage image, Camera camera, String rendererClassName, long sceneVersion)
+            throws IOException, InterruptedException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException("Preview rendering interrupted");
+        boolean exportScene = photoRenderer == null || !Objects.equals(rendererClassName, this.rendererClassName) ||
+            sceneVersion != this.sceneVersion || home.getEnvironment().getSkyColor() != skyColor;
+
+        try {
+            if (exportScene) {
+                disposeRenderer();
+                photoRenderer = AbstractPhotoRenderer.createInstance(rendererClassName, home, null, AbstractPhotoRenderer.Quality.LOW);
+                this.rendererClassName = rendererClassName;
+                this.sceneVersion = sceneVersion;
+                skyColor = home.getEnvironment().getSkyColor();
+                renderedPower.clear();
+                renderedVisibility.clear();
+                collectUpdatedItems(home.getFurniture(), null);
+                photoRenderer.render(image, camera, null);
+            } else {
+                List<Selectable> updatedItems = new ArrayList<>();
+                collectUpdatedItems(home.getFurniture(), updatedItems);
+                photoRenderer.render(image, camera, updatedItems, null);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The scene may not match the home after a failed export or update
+            disposeRenderer();
+            throw e;
+        }
+        // A stopped render leaves the scene as it is, only the image is incomplete
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException("Preview rendering interrupted");
+    }
+
+    private void collectUpdatedItems(List<HomePieceOfFurniture> furniture, List<Selectable> updatedItems) {
+        for (HomePieceOfFurniture piece : furniture) {
+            if (piece instanceof HomeFurnitureGroup)
+                collectUpdatedItems(((HomeFurnitureGroup)piece).getFurniture(), updatedItems);
+            boolean updated = !Objects.equals(renderedVisibility.put(piece, piece.isVisible()), piece.isVisible());
+            if (piece instanceof HomeLight) {
+                float power = ((HomeLight)piece).getPower();
+                updated |= !Objects.equals(renderedPower.put((HomeLight)piece, power), power);
+            }
+            if (updated && updatedItems != null)
+                updatedItems.add(piece);
+        }
+    }
+
+    private void disposeRenderer() {
+        if (photoRenderer != null) {
+            photoRenderer.dispose();
+            photoRenderer = null;
+        }
+    }
+
+    /**
+     * Stops the preview being rendered, if any, keeping its scene for the next preview.
+     */
+    public void stop() {
+        AbstractPhotoRenderer renderer = photoRenderer;
+        if (renderer != null)
+            renderer.stop();
+    }
+
+    /**
+     * Stops the preview being rendered, if any, and releases the renderer.
+     */
+    public void dispose() {
+        stop();
+        synchronized (this) {
+            disposeRenderer();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import javax.media.j3d.Transform3D;
+
+import com.eteks.sweethome3d.model.Camera;
+
+
+/**
+ * The perspective projection of a camera, kept as a plain row-major matrix
+ * so batches of points can be projected without allocating vectors. The
+ * matrix is only rebuilt when the camera or the render size change.
+ */
+public class Projection {
+    private final double[] matrix = new double[16];
+    private boolean valid;
+    private double cameraX;
+    private double cameraElevation;
+    private double cameraDepth;
+    private float yaw;
+    private float pitch;
+    private float fieldOfView;
+    private int renderWidth;
+    private int renderHeight;
+
+    /**
+     * Rebuilds the projection if <code>camera</code> or the render size changed
+     * since the last call. Returns whether the projection was rebuilt.
+     */
+    public boolean update(Camera camera, int renderWidth, int renderHeight) {
+        if (valid && camera.getX() == cameraX && camera.getZ() == cameraElevation && camera.getY() == cameraDepth &&
+            camera.getYaw() == yaw && camera.getPitch() == pitch && camera.getFieldOfView() == fieldOfView &&
+            renderWidth == this.renderWidth && renderHeight == this.renderHeight)
+            return false;
+
+        // World points are (x, elevation, depth), while the camera's Y is the depth and Z is the elevation
+        cameraX = camera.getX();
+        cameraElevation = camera.getZ();
+        cameraDepth = camera.getY();
+        yaw = camera.getYaw();
+        pitch = camera.getPitch();
+        fieldOfView = camera.getFieldOfView();
+        this.renderWidth = renderWidth;
+        this.renderHeight = renderHeight;
+
+        Transform3D yawRotation = new Transform3D();
+        yawRotation.rotY(yaw);
+
+        Transform3D pitchRotation = new Transform3D();
+        pitchRotation.rotX(-pitch);
+
+        Transform3D perspectiveTransform = new Transform3D();
+        perspectiveTransform.perspective(fieldOfView, (double)renderWidth / renderHeight, 0.1, 100);
+        perspectiveTransform.mul(pitchRotation);
+        perspectiveTransform.mul(yawRotation);
+        perspectiveTransform.get(matrix);
+        valid = true;
+        return true;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Projects <code>count</code> world points, packed in <code>points</code> as
+     * (x, elevation, depth) triplets, to normalized device coordinates packed in
+     * <code>ndc</code> as (x, y) pairs. Points that can't be projected (a zero,
+     * NaN or infinite w) are set to NaN.
+     */
+    public void project(double[] points, int count, double[] ndc) {
+        double m00 = matrix[0], m01 = matrix[1], m02 = matrix[2], m03 = matrix[3];
+        double m10 = matrix[4], m11 = matrix[5], m12 = matrix[6], m13 = matrix[7];
+        double m30 = matrix[12], m31 = matrix[13], m32 = matrix[14], m33 = matrix[15];
+
+        for (int i = 0; i < count; i++) {
+            double x = points[i * 3] - cameraX;
+            double y = points[i * 3 + 1] - cameraElevation;
+            double z = points[i * 3 + 2] - cameraDepth;
+            double w = m30 * x + m31 * y + m32 * z + m33;
+            if (w == 0 || Double.isNaN(w) || Double.isInfinite(w)) {
+                ndc[i * 2] = Double.NaN;
+                ndc[i * 2 + 1] = Double.NaN;
+                continue;
+            }
+            double inverseW = 1.0 / w;
+            ndc[i * 2] = (m00 * x + m01 * y + m02 * z + m03) * inverseW;
+            ndc[i * 2 + 1] = (m10 * x + m11 * y + m12 * z + m13) * inverseW;
+        }
+    }
+}
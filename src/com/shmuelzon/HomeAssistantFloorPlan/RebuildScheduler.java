@@ -0,0 +1,118 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+
+/**
+ * Coalesces requests to rebuild parts of a model. A request only marks its
+ * task as dirty, and all dirty tasks are then handed to the rebuild at once,
+ * either after the events currently being dispatched are handled, or once no
+ * request came in for a quiet period (for bursts of events spread over time,
+ * like camera moves). Rebuilds always run on the EDT.
+ */
+public class RebuildScheduler<T extends Enum<T>> {
+    private final Consumer<Set<T>> rebuild;
+    private final EnumSet<T> dirtyTasks;
+    private final Timer quietPeriodTimer;
+    private boolean scheduled;
+    private volatile long requestCount;
+    private volatile long rebuildCount;
+
+    public RebuildScheduler(Class<T> taskType, int quietPeriodMillis, Consumer<Set<T>> rebuild) {
+        this.rebuild = rebuild;
+        dirtyTasks = EnumSet.noneOf(taskType);
+        quietPeriodTimer = new Timer(quietPeriodMillis, ev -> run());
+        quietPeriodTimer.setRepeats(false);
+    }
+
+    /**
+     * Rebuilds <code>task</code> once the events currently being dispatched are handled.
+     */
+    public void request(T task) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> request(task));
+            return;
+        }
+        requestCount++;
+        dirtyTasks.add(task);
+        if (!scheduled) {
+            scheduled = true;
+            SwingUtilities.invokeLater(this::run);
+        }
+    }
+
+    /**
+     * Rebuilds <code>task</code> once no request was made for the quiet period.
+     */
+    public void requestAfterQuietPeriod(T task) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> requestAfterQuietPeriod(task));
+            return;
+        }
+        requestCount++;
+        dirtyTasks.add(task);
+        quietPeriodTimer.restart();
+    }
+
+    /**
+     * Runs the pending rebuild right away, waiting for it if called outside of the EDT.
+     */
+    public void flush() throws InterruptedException {
+        if (SwingUtilities.isEventDispatchThread()) {
+            run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(this::run);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Drops pending rebuilds, e.g. once the model is no longer used.
+     */
+    public void cancel() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::cancel);
+            return;
+        }
+        quietPeriodTimer.stop();
+        dirtyTasks.clear();
+    }
+
+    private void run() {
+        scheduled = false;
+        quietPeriodTimer.stop();
+        if (dirtyTasks.isEmpty())
+            return;
+        EnumSet<T> tasks = EnumSet.copyOf(dirtyTasks);
+        dirtyTasks.clear();
+        rebuildCount++;
+        rebuild.accept(tasks);
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /**
+     * Number of rebuilds avoided by coalescing requests.
+     */
+    public long getSavedRebuildCount() {
+        return requestCount - rebuildCount;
+    }
+}
@@ -0,0 +1,326 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import com.eteks.sweethome3d.model.Camera;
+import com.eteks.sweethome3d.model.Compass;
+import com.eteks.sweethome3d.model.Content;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomeEnvironment;
+import com.eteks.sweethome3d.model.HomeFurnitureGroup;
+import com.eteks.sweethome3d.model.HomeLight;
+import com.eteks.sweethome3d.model.HomeMaterial;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+import com.eteks.sweethome3d.model.HomeTexture;
+import com.eteks.sweethome3d.model.Level;
+import com.eteks.sweethome3d.model.LightSource;
+import com.eteks.sweethome3d.model.Room;
+import com.eteks.sweethome3d.model.Wall;
+import com.eteks.sweethome3d.tools.URLContent;
+
+
+/**
+ * Maps a digest of everything that affects the pixels of a render to the
+ * render stored on disk. The index is kept next to the renders so unchanged
+ * images are reused across runs even if their file name changed, while
+ * renders of a modified home are always redone.
+ */
+public class RenderCache {
+    private static final String INDEX_FILE_NAME = "renders.index";
+    private static final byte[] PNG_SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] PNG_END = {0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte)0xae, 0x42, 0x60, (byte)0x82};
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 2000;
+
+    private final Path directory;
+    private final Path indexFile;
+    private final Properties index = new Properties();
+    private boolean modified;
+    private long lastCheckpoint;
+
+    public static class KeyBuilder {
+        private final MessageDigest digest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+
+        public KeyBuilder() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public KeyBuilder add(String value) {
+            if (value == null)
+                return add(-1);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            add(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        public KeyBuilder add(long value) {
+            buffer.clear();
+            buffer.putLong(value);
+            digest.update(buffer.array(), 0, Long.BYTES);
+            return this;
+        }
+
+        public KeyBuilder add(float value) {
+            return add((long)Float.floatToIntBits(value));
+        }
+
+        public KeyBuilder add(boolean value) {
+            return add(value ? 1L : 0L);
+        }
+
+        public KeyBuilder add(Integer value) {
+            return add(value == null ? Long.MIN_VALUE : value.longValue());
+        }
+
+        public KeyBuilder add(Float value) {
+            return value == null ? add(Long.MIN_VALUE) : add(value.floatValue());
+        }
+
+        public KeyBuilder add(float[][] points) {
+            if (points == null)
+                return add(Long.MIN_VALUE);
+            add(points.length);
+            for (float[] point : points) {
+                for (float coordinate : point)
+                    add(coordinate);
+            }
+            return this;
+        }
+
+        public KeyBuilder add(Level level) {
+            if (level == null)
+                return add(Long.MIN_VALUE);
+            return add(level.getElevation()).add(level.getHeight());
+        }
+
+        public KeyBuilder add(Content content) {
+            if (content == null)
+                return add(Long.MIN_VALUE);
+            // Contents without a URL can't be told apart across runs, so they never match
+            return add(content instanceof URLContent ? ((URLContent)content).getURL().toString() : content.toString());
+        }
+
+        public KeyBuilder add(HomeTexture texture) {
+            if (texture == null)
+                return add(Long.MIN_VALUE);
+            return add(texture.getName()).add(texture.getCatalogId()).add(texture.getImage())
+                .add(texture.getWidth()).add(texture.getHeight()).add(texture.getXOffset()).add(texture.getYOffset())
+                .add(texture.getAngle()).add(texture.getScale()).add(texture.isLeftToRightOriented());
+        }
+
+        public KeyBuilder add(HomeMaterial[] materials) {
+            if (materials == null)
+                return add(Long.MIN_VALUE);
+            add(materials.length);
+            for (HomeMaterial material : materials) {
+                if (material == null)
+                    add(Long.MIN_VALUE);
+                else
+                    add(material.getName()).add(material.getKey()).add(material.getColor())
+                        .add(material.getTexture()).add(material.getShininess());
+            }
+            return this;
+        }
+
+        public KeyBuilder add(Camera camera) {
+            return add(camera.getX()).add(camera.getY()).add(camera.getZ())
+                .add(camera.getYaw()).add(camera.getPitch()).add(camera.getFieldOfView())
+                .add(camera.getLens() != null ? camera.getLens().name() : null);
+        }
+
+        public String build() {
+            byte[] hash = digest.digest();
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                hex.append(String.format("%02x", b & 0xff));
+            return hex.toString();
+        }
+    }
+
+    public RenderCache(Path directory) {
+        this.directory = directory;
+        this.indexFile = directory.resolve(INDEX_FILE_NAME);
+
+        if (!Files.exists(indexFile))
+            return;
+        try (InputStream input = Files.newInputStream(indexFile)) {
+            index.load(input);
+        } catch (IOException e) {
+            System.err.println("Could not read render cache index " + indexFile + ", ignoring it: " + e.getMessage());
+            index.clear();
+        }
+        removeCorruptRenders();
+    }
+
+    /**
+     * Drops the renders that aren't complete PNG files from the index. Only the
+     * first and last bytes of each file are checked, which is enough to detect
+     * renders whose write was cut off, without decoding them.
+     */
+    private void removeCorruptRenders() {
+        boolean removed = false;
+        Iterator<Map.Entry<Object, Object>> iter = index.entrySet().iterator();
+        while (iter.hasNext()) {
+            Path file = directory.resolve(iter.next().getValue().toString());
+            if (!Files.exists(file) || isCompletePng(file))
+                continue;
+            System.err.println("Render " + file + " is corrupt, it will be rendered again");
+            iter.remove();
+            removed = true;
+        }
+        if (!removed)
+            return;
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            System.err.println("Could not write render cache index " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isCompletePng(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < PNG_SIGNATURE.length + PNG_END.length)
+                return false;
+            ByteBuffer start = ByteBuffer.allocate(PNG_SIGNATURE.length);
+            ByteBuffer end = ByteBuffer.allocate(PNG_END.length);
+            read(channel, start, 0);
+            read(channel, end, size - PNG_END.length);
+            return Arrays.equals(start.array(), PNG_SIGNATURE) && Arrays.equals(end.array(), PNG_END);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+    }
+
+    /**
+     * Digests the parts of the home that are identical for all renders of a run:
+     * furniture geometry, colors, textures, materials and initial light power,
+     * walls, rooms and environment. Must be called while the home is in its
+     * original state.
+     */
+    public static String digestHome(Home home) {
+        KeyBuilder key = new KeyBuilder();
+
+        for (HomePieceOfFurniture piece : home.getFurniture())
+            addPiece(key, piece);
+        for (Wall wall : home.getWalls())
+            key.add(wall.getPoints()).add(wall.getHeight()).add(wall.getThickness()).add(wall.getLevel())
+                .add(wall.getLeftSideColor()).add(wall.getLeftSideTexture())
+                .add(wall.getRightSideColor()).add(wall.getRightSideTexture());
+        for (Room room : home.getRooms())
+            key.add(room.getPoints()).add(room.isFloorVisible()).add(room.isCeilingVisible())
+                .add(room.getFloorColor()).add(room.getFloorTexture())
+                .add(room.getCeilingColor()).add(room.getCeilingTexture()).add(room.getLevel());
+
+        HomeEnvironment environment = home.getEnvironment();
+        key.add(environment.getSkyColor()).add(environment.getSkyTexture())
+            .add(environment.getGroundColor()).add(environment.getGroundTexture()).add(environment.getLightColor())
+            .add(environment.getWallsAlpha()).add(environment.isAllLevelsVisible());
+        Compass compass = home.getCompass();
+        key.add(compass.getLatitude()).add(compass.getLongitude()).add(compass.getNorthDirection()).add(compass.getTimeZone());
+        key.add(home.getSelectedLevel());
+
+        return key.build();
+    }
+
+    private static void addPiece(KeyBuilder key, HomePieceOfFurniture piece) {
+        key.add(piece.getName()).add(piece.getCatalogId()).add(piece.isVisible())
+            .add(piece.getX()).add(piece.getY()).add(piece.getElevation()).add(piece.getAngle())
+            .add(piece.getWidth()).add(piece.getDepth()).add(piece.getHeight())
+            .add(piece.getPitch()).add(piece.getRoll()).add(piece.getModelRotation())
+            .add(piece.isModelMirrored()).add(piece.getColor()).add(piece.getTexture())
+            .add(piece.getModelMaterials()).add(piece.getShininess()).add(piece.getLevel());
+        if (piece instanceof HomeLight) {
+            HomeLight light = (HomeLight)piece;
+            key.add(light.getPower());
+            LightSource[] lightSources = light.getLightSources();
+            key.add(lightSources.length);
+            for (LightSource lightSource : lightSources)
+                key.add(lightSource.getX()).add(lightSource.getY()).add(lightSource.getZ())
+                    .add(lightSource.getColor()).add(lightSource.getDiameter());
+        }
+        if (piece instanceof HomeFurnitureGroup) {
+            for (HomePieceOfFurniture child : ((HomeFurnitureGroup)piece).getFurniture())
+                addPiece(key, child);
+        }
+    }
+
+    /**
+     * Makes sure <code>file</code> holds the render identified by <code>key</code>,
+     * copying it from wherever it was stored under a different name.
+     * @return <code>true</code> if a cached render was found
+     */
+    public synchronized boolean restore(String key, Path file) throws IOException {
+        String cachedName = index.getProperty(key);
+        if (cachedName == null)
+            return false;
+
+        Path cachedFile = directory.resolve(cachedName);
+        if (!Files.exists(cachedFile)) {
+            index.remove(key);
+            modified = true;
+            return false;
+        }
+        if (!cachedFile.equals(file)) {
+            AtomicFile.copy(cachedFile, file);
+            put(key, file);
+        }
+        return true;
+    }
+
+    public synchronized void put(String key, Path file) throws IOException {
+        String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+
+        Iterator<Map.Entry<Object, Object>> iter = index.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Object, Object> entry = iter.next();
+            if (name.equals(entry.getValue()) && !key.equals(entry.getKey()))
+                iter.remove();
+        }
+        index.setProperty(key, name);
+        modified = true;
+        // The index is only checkpointed periodically, a render missing from it is just redone
+        if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS)
+            flush();
+    }
+
+    /**
+     * Writes the renders added since the index was last written.
+     */
+    public synchronized void flush() throws IOException {
+        if (modified)
+            writeIndex();
+    }
+
+    private void writeIndex() throws IOException {
+        AtomicFile.write(indexFile, output -> index.store(output, null));
+        modified = false;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+}
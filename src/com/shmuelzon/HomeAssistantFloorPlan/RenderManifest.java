@@ -0,0 +1,186 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Keeps track of the renders of a run in the renders directory, so a run that
+ * was stopped or crashed is resumed where it stopped. Each render is recorded
+ * with the key of its inputs and the digest of the image file once it was
+ * completely written, so only the renders whose file is intact and up to date
+ * are skipped when resuming, while partially written ones are redone. The
+ * manifest is checkpointed periodically and always replaced atomically.
+ */
+public class RenderManifest {
+    private static final String MANIFEST_FILE_NAME = "renders.manifest";
+    private static final String VERSION = "1";
+    private static final String VERSION_PROPERTY = "version";
+    private static final String COMPLETE_PROPERTY = "complete";
+    private static final String JOB_PREFIX = "job.";
+    private static final String STATUS_PENDING = "pending";
+    private static final String STATUS_DONE = "done";
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 2000;
+
+    private final Path manifestFile;
+    private final Properties manifest = new Properties();
+    private final Map<String, String> verifiedJobs = new HashMap<>();
+    private final boolean resuming;
+    private boolean modified;
+    private long lastCheckpoint;
+
+    /**
+     * Loads the manifest of <code>directory</code>. If the last run recorded in it
+     * didn't complete, its completed renders can be reused, otherwise a new run
+     * is started.
+     */
+    public RenderManifest(Path directory) {
+        manifestFile = directory.resolve(MANIFEST_FILE_NAME);
+
+        if (Files.exists(manifestFile)) {
+            try (InputStream input = Files.newInputStream(manifestFile)) {
+                manifest.load(input);
+            } catch (IOException e) {
+                System.err.println("Could not read render manifest " + manifestFile + ", ignoring it: " + e.getMessage());
+                manifest.clear();
+            }
+        }
+        resuming = VERSION.equals(manifest.getProperty(VERSION_PROPERTY)) && !Boolean.parseBoolean(manifest.getProperty(COMPLETE_PROPERTY));
+        if (!resuming)
+            manifest.clear();
+        manifest.setProperty(VERSION_PROPERTY, VERSION);
+        manifest.setProperty(COMPLETE_PROPERTY, String.valueOf(false));
+        modified = true;
+    }
+
+    /**
+     * Returns whether this run resumes one that didn't complete.
+     */
+    public boolean isResuming() {
+        return resuming;
+    }
+
+    /**
+     * Returns whether the render <code>name</code> of a previous, incomplete,
+     * run can be reused, i.e. it has the same <code>key</code> and its file was
+     * completely written and wasn't modified since.
+     */
+    public synchronized boolean isCompleted(String name, String key, Path file) throws IOException {
+        if (key.equals(verifiedJobs.get(name)))
+            return true;
+        String[] job = getJob(name);
+        if (job == null || !STATUS_DONE.equals(job[0]) || !job[1].equals(key) || !Files.isRegularFile(file))
+            return false;
+        if (!job[2].equals(digestFile(file))) {
+            System.err.println("Render " + file + " was not completely written, rendering it again");
+            return false;
+        }
+        verifiedJobs.put(name, key);
+        return true;
+    }
+
+    public synchronized void started(String name, String key) throws IOException {
+        verifiedJobs.remove(name);
+        setJob(name, STATUS_PENDING, key, "");
+    }
+
+    /**
+     * Records that the render <code>name</code> was completely written to <code>file</code>.
+     */
+    public void completed(String name, String key, Path file) throws IOException {
+        completed(name, key, digestFile(file));
+    }
+
+    /**
+     * Records that the render <code>name</code> was completely written, with
+     * <code>digest</code> computed by a {@link #createDigest()} digest while the
+     * file was written, which saves reading it back.
+     */
+    public void completed(String name, String key, MessageDigest digest) throws IOException {
+        completed(name, key, toHex(digest.digest()));
+    }
+
+    private synchronized void completed(String name, String key, String digest) throws IOException {
+        setJob(name, STATUS_DONE, key, digest);
+        verifiedJobs.put(name, key);
+    }
+
+    /**
+     * Writes the manifest, marking the run as complete if <code>complete</code> is true.
+     */
+    public synchronized void close(boolean complete) throws IOException {
+        manifest.setProperty(COMPLETE_PROPERTY, String.valueOf(complete));
+        write();
+    }
+
+    private String[] getJob(String name) {
+        String value = manifest.getProperty(JOB_PREFIX + name);
+        if (value == null)
+            return null;
+        String[] job = value.split(",", -1);
+        return job.length == 3 ? job : null;
+    }
+
+    private void setJob(String name, String status, String key, String digest) throws IOException {
+        manifest.setProperty(JOB_PREFIX + name, status + "," + key + "," + digest);
+        modified = true;
+        if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS)
+            write();
+    }
+
+    private void write() throws IOException {
+        if (!modified)
+            return;
+        AtomicFile.write(manifestFile, output -> manifest.store(output, null));
+        modified = false;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of renders recorded as completed.
+     */
+    public synchronized int getCompletedCount() {
+        int count = 0;
+        for (Map.Entry<Object, Object> entry : manifest.entrySet()) {
+            if (entry.getKey().toString().startsWith(JOB_PREFIX) && entry.getValue().toString().startsWith(STATUS_DONE + ","))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns a digest of the kind the manifest records renders with.
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String digestFile(Path file) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) > 0)
+                digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes)
+            hex.append(String.format("%02x", b & 0xff));
+        return hex.toString();
+    }
+}
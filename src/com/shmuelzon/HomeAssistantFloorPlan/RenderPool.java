@@ -0,0 +1,231 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Camera;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomeFurnitureGroup;
+import com.eteks.sweethome3d.model.HomeLight;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+
+/**
+ * A pool of independent photo renderers consuming a queue of render jobs.
+ * Each worker owns a private clone of the home, so preparing the lights and
+ * visibility of one job never affects a render running on another worker.
+ * The pool must be created on the EDT, as it snapshots the home model.
+ * Only a bounded number of jobs are rendering or waiting to be retrieved at
+ * any time, the following ones are started as results are retrieved, so the
+ * memory held by rendered images doesn't grow with the number of jobs.
+ */
+public class RenderPool {
+    private final String rendererClassName;
+    private final AbstractPhotoRenderer.Quality quality;
+    private final int renderWidth;
+    private final int renderHeight;
+    private final List<Entity> lightEntities;
+    private final List<Entity> otherLevelsEntities;
+    private final RenderListener renderListener;
+    private final ExecutorService executor;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final List<Worker> workers = new ArrayList<>();
+    private final int maxStartedJobs;
+    private final Map<String, Runnable> pendingJobs = new LinkedHashMap<>();
+    private final Map<String, Future<BufferedImage>> jobs = new HashMap<>();
+    private boolean shutdown;
+
+    public interface RenderListener {
+        /**
+         * Called from the worker once <code>image</code> was rendered, e.g. to write it.
+         */
+        void renderCompleted(String name, BufferedImage image) throws IOException, InterruptedException;
+    }
+
+    private static class Worker {
+        private final Home home;
+        private final Map<HomePieceOfFurniture, HomePieceOfFurniture> pieces = new IdentityHashMap<>();
+        private final Map<HomeLight, Float> initialPower = new IdentityHashMap<>();
+        private volatile AbstractPhotoRenderer photoRenderer;
+
+        public Worker(Home home) {
+            this.home = home.clone();
+            mapPieces(home.getFurniture(), this.home.getFurniture());
+        }
+
+        private void mapPieces(List<HomePieceOfFurniture> originals, List<HomePieceOfFurniture> clones) {
+            for (int i = 0; i < originals.size() && i < clones.size(); i++) {
+                HomePieceOfFurniture original = originals.get(i);
+                HomePieceOfFurniture clone = clones.get(i);
+                pieces.put(original, clone);
+                if (clone instanceof HomeLight)
+                    initialPower.put((HomeLight)clone, ((HomeLight)clone).getPower());
+                if (original instanceof HomeFurnitureGroup && clone instanceof HomeFurnitureGroup)
+                    mapPieces(((HomeFurnitureGroup)original).getFurniture(), ((HomeFurnitureGroup)clone).getFurniture());
+            }
+        }
+
+        public void setLightPower(Entity entity, boolean on) {
+            for (HomePieceOfFurniture piece : entity.getPiecesOfFurniture()) {
+                HomePieceOfFurniture clone = pieces.get(piece);
+                if (clone instanceof HomeLight)
+                    ((HomeLight)clone).setPower(on ? initialPower.get(clone) : 0);
+            }
+        }
+
+        public void setVisible(Entity entity, boolean visible) {
+            for (HomePieceOfFurniture piece : entity.getPiecesOfFurniture()) {
+                HomePieceOfFurniture clone = pieces.get(piece);
+                if (clone != null)
+                    clone.setVisible(visible);
+            }
+        }
+
+        public void stop() {
+            AbstractPhotoRenderer renderer = photoRenderer;
+            if (renderer != null)
+                renderer.stop();
+        }
+    }
+
+    public RenderPool(Home home, List<Entity> lightEntities, List<Entity> otherLevelsEntities, String rendererClassName,
+                      AbstractPhotoRenderer.Quality quality, int renderWidth, int renderHeight, int numberOfWorkers,
+                      RenderListener renderListener) {
+        this.rendererClassName = rendererClassName;
+        this.quality = quality;
+        this.renderWidth = renderWidth;
+        this.renderHeight = renderHeight;
+        this.lightEntities = new ArrayList<>(lightEntities);
+        this.otherLevelsEntities = new ArrayList<>(otherLevelsEntities);
+        this.renderListener = renderListener;
+
+        idleWorkers = new ArrayBlockingQueue<>(numberOfWorkers);
+        for (int i = 0; i < numberOfWorkers; i++) {
+            Worker worker = new Worker(home);
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+        executor = Executors.newFixedThreadPool(numberOfWorkers);
+        // Keep each worker busy while the previous results are retrieved
+        maxStartedJobs = numberOfWorkers * 2;
+    }
+
+    /**
+     * Queues the render of <code>scene</code> with only <code>onLights</code> (and
+     * always-on lights) turned on. The result is passed to the pool's listener
+     * and can be retrieved later on with {@link #getImage(String)}. Jobs should
+     * be retrieved in the order they were queued, as they're started in that
+     * order.
+     */
+    public synchronized void submit(String name, Scene scene, Camera camera, List<Entity> onLights) {
+        final List<Entity> finalOnLights = new ArrayList<>(onLights);
+        final Camera jobCamera = camera.clone();
+        pendingJobs.put(name, () -> jobs.put(name, executor.submit(() -> {
+            Worker worker = idleWorkers.take();
+            try {
+                BufferedImage image = render(worker, scene, jobCamera, finalOnLights);
+                renderListener.renderCompleted(name, image);
+                return image;
+            } finally {
+                idleWorkers.put(worker);
+            }
+        })));
+        startPendingJobs();
+    }
+
+    private void startPendingJobs() {
+        Iterator<Runnable> iter = pendingJobs.values().iterator();
+        while (jobs.size() < maxStartedJobs && iter.hasNext()) {
+            iter.next().run();
+            iter.remove();
+        }
+    }
+
+    public synchronized boolean contains(String name) {
+        // Once shut down, all jobs are reported so they aren't rendered elsewhere
+        return shutdown || jobs.containsKey(name) || pendingJobs.containsKey(name);
+    }
+
+    public BufferedImage getImage(String name) throws IOException, InterruptedException {
+        Future<BufferedImage> job;
+        synchronized (this) {
+            if (shutdown)
+                throw new InterruptedException("Render pool was shut down");
+            // Start the job right away if it was retrieved out of order
+            Runnable pendingJob = pendingJobs.remove(name);
+            if (pendingJob != null)
+                pendingJob.run();
+            job = jobs.remove(name);
+            startPendingJobs();
+        }
+        if (job == null)
+            throw new IllegalStateException("No render job named " + name);
+
+        try {
+            return job.get();
+        } catch (CancellationException e) {
+            throw new InterruptedException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException)cause;
+            throw new RuntimeException("Error rendering " + name, cause);
+        }
+    }
+
+    public void stop() {
+        shutdown();
+        for (Worker worker : workers)
+            worker.stop();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            shutdown = true;
+            pendingJobs.clear();
+            for (Future<BufferedImage> job : jobs.values())
+                job.cancel(true);
+            jobs.clear();
+        }
+    }
+
+    private BufferedImage render(Worker worker, Scene scene, Camera camera, List<Entity> onLights) throws IOException, InterruptedException {
+        for (Entity entity : otherLevelsEntities)
+            worker.setLightPower(entity, false);
+        for (Entity light : lightEntities)
+            worker.setLightPower(light, onLights.contains(light) || light.getAlwaysOn());
+        for (Entity entity : scene.getEntitiesToShowHide())
+            worker.setVisible(entity, scene.isEntityShown(entity));
+
+        worker.photoRenderer = AbstractPhotoRenderer.createInstance(rendererClassName, worker.home, null, quality);
+        BufferedImage image = new BufferedImage(renderWidth, renderHeight, BufferedImage.TYPE_INT_RGB);
+        try {
+            worker.photoRenderer.render(image, camera, null);
+        } finally {
+            worker.photoRenderer.dispose();
+            worker.photoRenderer = null;
+        }
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        return image;
+    }
+}
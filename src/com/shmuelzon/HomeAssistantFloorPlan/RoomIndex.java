@@ -0,0 +1,215 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eteks.sweethome3d.model.CollectionListener;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.Level;
+import com.eteks.sweethome3d.model.Room;
+
+
+/**
+ * Finds the rooms containing a point. The rooms of each level are bucketed by
+ * their bounding boxes in a uniform grid, so a lookup only runs the polygon
+ * test on the few rooms whose bounding box covers the point. Lookups return
+ * the same rooms, in the same order, as testing all the home's rooms one by
+ * one. The index is rebuilt lazily after rooms are added, removed or modified.
+ */
+public class RoomIndex {
+    private final Home home;
+    private final Map<Level, LevelIndex> levels = new IdentityHashMap<>();
+    private final List<Room> listenedRooms = new ArrayList<>();
+    private final PropertyChangeListener roomChangeListener = ev -> invalidate();
+    private final CollectionListener<Room> roomsListener = ev -> invalidate();
+    private boolean valid;
+    private int version;
+
+    private static class IndexedRoom {
+        public final Room room;
+        public final int index;
+        public final float minX;
+        public final float minY;
+        public final float maxX;
+        public final float maxY;
+
+        public IndexedRoom(Room room, int index, float[][] points) {
+            this.room = room;
+            this.index = index;
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (float[] point : points) {
+                minX = Math.min(minX, point[0]);
+                minY = Math.min(minY, point[1]);
+                maxX = Math.max(maxX, point[0]);
+                maxY = Math.max(maxY, point[1]);
+            }
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        public boolean boundsContain(float x, float y, float margin) {
+            return x >= minX - margin && x <= maxX + margin && y >= minY - margin && y <= maxY + margin;
+        }
+    }
+
+    private static class LevelIndex {
+        private final List<IndexedRoom> rooms = new ArrayList<>();
+        private float minX;
+        private float minY;
+        private float cellSize;
+        private int columns;
+        private int rows;
+        private List<List<IndexedRoom>> cells;
+
+        public void build() {
+            minX = Float.POSITIVE_INFINITY;
+            minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (IndexedRoom room : rooms) {
+                minX = Math.min(minX, room.minX);
+                minY = Math.min(minY, room.minY);
+                maxX = Math.max(maxX, room.maxX);
+                maxY = Math.max(maxY, room.maxY);
+            }
+            // Aim for about one cell per room
+            float width = Math.max(maxX - minX, 1);
+            float height = Math.max(maxY - minY, 1);
+            cellSize = Math.max((float)Math.sqrt(width * height / rooms.size()), 1);
+            columns = (int)(width / cellSize) + 1;
+            rows = (int)(height / cellSize) + 1;
+            cells = new ArrayList<>(columns * rows);
+            for (int i = 0; i < columns * rows; i++)
+                cells.add(null);
+
+            for (IndexedRoom room : rooms) {
+                for (int row = row(room.minY); row <= row(room.maxY); row++) {
+                    for (int column = column(room.minX); column <= column(room.maxX); column++) {
+                        int cell = row * columns + column;
+                        if (cells.get(cell) == null)
+                            cells.set(cell, new ArrayList<>());
+                        cells.get(cell).add(room);
+                    }
+                }
+            }
+        }
+
+        private int column(float x) {
+            return Math.max(0, Math.min(columns - 1, (int)Math.floor((x - minX) / cellSize)));
+        }
+
+        private int row(float y) {
+            return Math.max(0, Math.min(rows - 1, (int)Math.floor((y - minY) / cellSize)));
+        }
+
+        /**
+         * Returns the indices of the rooms containing the point.
+         */
+        public BitSet find(float x, float y, float margin, boolean firstOnly) {
+            BitSet tested = new BitSet(rooms.size());
+            BitSet found = new BitSet(rooms.size());
+            for (int row = row(y - margin); row <= row(y + margin); row++) {
+                for (int column = column(x - margin); column <= column(x + margin); column++) {
+                    List<IndexedRoom> cell = cells.get(row * columns + column);
+                    if (cell == null)
+                        continue;
+                    for (IndexedRoom room : cell) {
+                        if (tested.get(room.index) || (firstOnly && !found.isEmpty() && room.index > found.nextSetBit(0)))
+                            continue;
+                        tested.set(room.index);
+                        if (room.boundsContain(x, y, margin) && room.room.containsPoint(x, y, margin))
+                            found.set(room.index);
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    public RoomIndex(Home home) {
+        this.home = home;
+        home.addRoomsListener(roomsListener);
+    }
+
+    /**
+     * Stops listening to the home and its rooms.
+     */
+    public synchronized void dispose() {
+        home.removeRoomsListener(roomsListener);
+        for (Room room : listenedRooms)
+            room.removePropertyChangeListener(roomChangeListener);
+        listenedRooms.clear();
+        levels.clear();
+        valid = false;
+    }
+
+    public synchronized void invalidate() {
+        valid = false;
+        version++;
+    }
+
+    /**
+     * Returns a number that changes every time the rooms of the home change.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    private void build() {
+        for (Room room : listenedRooms)
+            room.removePropertyChangeListener(roomChangeListener);
+        listenedRooms.clear();
+        levels.clear();
+
+        for (Room room : home.getRooms()) {
+            room.addPropertyChangeListener(roomChangeListener);
+            listenedRooms.add(room);
+            float[][] points = room.getPoints();
+            if (points == null || points.length == 0)
+                continue;
+            LevelIndex levelIndex = levels.computeIfAbsent(room.getLevel(), level -> new LevelIndex());
+            levelIndex.rooms.add(new IndexedRoom(room, levelIndex.rooms.size(), points));
+        }
+        for (LevelIndex levelIndex : levels.values())
+            levelIndex.build();
+        valid = true;
+    }
+
+    /**
+     * Returns the first room of <code>level</code>, in the home's order, for which
+     * {@link Room#containsPoint(float, float, float)} is true, or <code>null</code>.
+     */
+    public synchronized Room getRoomAt(Level level, float x, float y, float margin) {
+        if (!valid)
+            build();
+        LevelIndex levelIndex = levels.get(level);
+        if (levelIndex == null)
+            return null;
+        BitSet found = levelIndex.find(x, y, margin, true);
+        return found.isEmpty() ? null : levelIndex.rooms.get(found.nextSetBit(0)).room;
+    }
+
+    /**
+     * Returns all the rooms of <code>level</code>, in the home's order, for which
+     * {@link Room#containsPoint(float, float, float)} is true.
+     */
+    public synchronized List<Room> getRoomsAt(Level level, float x, float y, float margin) {
+        if (!valid)
+            build();
+        LevelIndex levelIndex = levels.get(level);
+        if (levelIndex == null)
+            return Collections.emptyList();
+        BitSet found = levelIndex.find(x, y, margin, false);
+        List<Room> rooms = new ArrayList<>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1))
+            rooms.add(levelIndex.rooms.get(i).room);
+        return rooms;
+    }
+}
@@ -1,5 +1,6 @@
 package com.shmuelzon.HomeAssistantFloorPlan;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,22 +46,36 @@ public class Scene {
      */
     public void prepareForVisibility() {
         for (Entity entity : entitiesToShowHide)
-            entity.setVisible(entitiesToShow.contains(entity));
+            entity.setVisible(isEntityShown(entity));
     }
 
-    public String getConditions() {
-        String conditions = "";
+    public List<Entity> getEntitiesToShowHide() {
+        return entitiesToShowHide;
+    }
+
+    public boolean isEntityShown(Entity entity) {
+        return entitiesToShow.contains(entity);
+    }
 
-        conditions += getRenderTimeCondition();
-        conditions += getEntitiesToShowHideCondition();
+    public void writeConditions(YamlWriter yaml) throws IOException {
+        writeRenderTimeCondition(yaml);
+        writeEntitiesToShowHideCondition(yaml);
+    }
 
-        return conditions;
+    public boolean hasConditions() {
+        if (renderingTimes.size() > 1)
+            return true;
+        for (Entity entity : entitiesToShowHide) {
+            if (hasShowHideCondition(entity))
+                return true;
+        }
+        return false;
     }
 
-    private String getRenderTimeCondition() {
+    private void writeRenderTimeCondition(YamlWriter yaml) throws IOException {
         final long oneMinuteInMs = 60000;
         if (renderingTimes.size() <= 1)
-            return "";
+            return;
 
         final int indexInTimes = renderingTimes.indexOf(renderingTime);
         final int numberOfTimes = renderingTimes.size();
@@ -79,7 +94,7 @@ public class Scene {
 
         // If the start time is less than the end time, it's a simple range within a single day.
         if (startTimeNumeric < endTimeNumeric) {
-            return String.format(
+            yaml.format(
                 "      - condition: numeric_state\n" +
                 "        entity: sensor.time_as_number_utc\n" +
                 "        above: %d\n" +
@@ -87,7 +102,7 @@ public class Scene {
                 startTimeNumeric,
                 endTimeNumeric);
         } else { // Otherwise, the range wraps around midnight.
-            return String.format(
+            yaml.format(
                 "      - condition: or\n" +
                 "        conditions:\n" +
                 "          - condition: numeric_state\n" +
@@ -102,20 +117,24 @@ public class Scene {
     }
 
     // --- MODIFIED: This method now correctly uses the new operator/value fields from Entity.java ---
-    private String getEntitiesToShowHideCondition() {
-        String condition = "";
+    private boolean hasShowHideCondition(Entity entity) {
+        DisplayOperator op = entity.getFurnitureDisplayOperator();
+        String value = entity.getFurnitureDisplayValue();
+
+        // If the condition is not set, or is numeric (not supported by this render-layer logic), skip it.
+        // Also skip if the operator is ALWAYS or NEVER, as these don't require a state condition in the YAML.
+        return !(op == null || value == null || value.trim().isEmpty() ||
+            op == DisplayOperator.GREATER_THAN || op == DisplayOperator.LESS_THAN || op == DisplayOperator.ALWAYS || op == DisplayOperator.NEVER);
+    }
 
+    private void writeEntitiesToShowHideCondition(YamlWriter yaml) throws IOException {
         for (Entity entity : entitiesToShowHide) {
+            if (!hasShowHideCondition(entity))
+                continue;
+
             DisplayOperator op = entity.getFurnitureDisplayOperator();
             String value = entity.getFurnitureDisplayValue();
 
-            // If the condition is not set, or is numeric (not supported by this render-layer logic), skip it.
-            // Also skip if the operator is ALWAYS or NEVER, as these don't require a state condition in the YAML.
-            if (op == null || value == null || value.trim().isEmpty() ||
-                op == DisplayOperator.GREATER_THAN || op == DisplayOperator.LESS_THAN || op == DisplayOperator.ALWAYS || op == DisplayOperator.NEVER) {
-                continue;
-            }
-
             boolean isNotOperator = (op == DisplayOperator.IS_NOT);
             boolean shouldHide = !entitiesToShow.contains(entity);
 
@@ -125,7 +144,7 @@ public class Scene {
             
             String conditionType = useNot ? "_not" : "";
             
-            condition += String.format(
+            yaml.format(
                 "      - condition: state\n" +
                 "        entity: %s\n" +
                 "        state%s: '%s'\n",
@@ -133,8 +152,6 @@ public class Scene {
                 conditionType,
                 value);
         }
-
-        return condition;
     }
 
     /**
@@ -1,7 +1,16 @@
 package com.shmuelzon.HomeAssistantFloorPlan;
 
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.eteks.sweethome3d.model.Home;
@@ -10,55 +19,282 @@ public class Settings {
     private static final String PROPERTY_PREFIX = "com.shmuelzon.HomeAssistantFloorPlan.";
     public static final String CONTROLLER_HA_URL = "haUrl";
     public static final String CONTROLLER_HA_TOKEN = "haToken";
+    public static final String CONTROLLER_COMPACT_ENTITY_SETTINGS = "compactEntitySettings";
+    private static final String MAP_FORMAT_VERSION = "1";
+
+    // Shared by all the settings of a home, so a value written through one is seen by the others
+    private static final Map<Home, Cache> caches = new WeakHashMap<>();
 
     private Home home;
+    private Cache cache;
+    private Map<String, String> batchValues;
+    private int batchDepth;
+
+    /**
+     * The plugin's properties of a home, read once and kept along with their
+     * parsed values. The home notifies changes of each property, so values set
+     * from outside the plugin (e.g. undoing a change) replace the cached ones.
+     * The cache doesn't reference the home, so it is dropped along with it.
+     */
+    private static class Cache {
+        private static class Value {
+            public final String text;
+            public Object parsed;
+
+            public Value(String text) {
+                this.text = text;
+            }
+        }
+
+        private final Map<String, Value> values = new HashMap<>();
+        private long version;
+        private final PropertyChangeListener propertyListener = ev -> {
+            synchronized (this) {
+                values.put(ev.getPropertyName().substring(PROPERTY_PREFIX.length()), new Value((String)ev.getNewValue()));
+                version++;
+            }
+        };
+        private boolean loaded;
+
+        private void load(Home home) {
+            for (String propertyName : home.getPropertyNames()) {
+                if (!propertyName.startsWith(PROPERTY_PREFIX))
+                    continue;
+                values.put(propertyName.substring(PROPERTY_PREFIX.length()), new Value(home.getProperty(propertyName)));
+                home.addPropertyChangeListener(propertyName, propertyListener);
+            }
+            loaded = true;
+        }
+
+        public synchronized Value get(Home home, String name) {
+            if (!loaded)
+                load(home);
+            Value value = values.get(name);
+            if (value == null) {
+                // Listen to properties missing from the home too, in case they're added later on
+                value = new Value(null);
+                values.put(name, value);
+                home.addPropertyChangeListener(PROPERTY_PREFIX + name, propertyListener);
+            }
+            return value;
+        }
+
+        public synchronized void put(String name, String text) {
+            values.put(name, new Value(text));
+            version++;
+        }
+
+        public synchronized long getVersion() {
+            return version;
+        }
+
+        public synchronized String getText(Home home, String name) {
+            return get(home, name).text;
+        }
+
+        public synchronized List<String> getNames(Home home, String prefix) {
+            if (!loaded)
+                load(home);
+            List<String> names = new ArrayList<>();
+            for (Map.Entry<String, Value> entry : values.entrySet()) {
+                if (entry.getValue().text != null && entry.getKey().startsWith(prefix))
+                    names.add(entry.getKey());
+            }
+            return names;
+        }
+
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T getParsed(Home home, String name, Class<?> type, Function<String, T> parser) {
+            Value value = get(home, name);
+            if (value.text == null)
+                return null;
+            if (!type.isInstance(value.parsed))
+                value.parsed = parser.apply(value.text);
+            return (T)value.parsed;
+        }
+    }
 
     public Settings(Home home) {
         this.home = home;
+        synchronized (caches) {
+            cache = caches.computeIfAbsent(home, h -> new Cache());
+        }
     }
 
     public String get(String name, String defaultValue) {
-        String value = home.getProperty(PROPERTY_PREFIX + name);
+        String value = get(name);
         if (value == null)
             return defaultValue;
         return value;
     }
 
     public String get(String name) {
-        return get(name, null);
+        if (batchValues != null && batchValues.containsKey(name))
+            return batchValues.get(name);
+        return cache.getText(home, name);
+    }
+
+    private <T> T getParsed(String name, Class<?> type, Function<String, T> parser) {
+        if (batchValues != null && batchValues.containsKey(name)) {
+            String value = batchValues.get(name);
+            return value == null ? null : parser.apply(value);
+        }
+        return cache.getParsed(home, name, type, parser);
     }
 
     public boolean getBoolean(String name, boolean defaultValue) {
-        return Boolean.valueOf(get(name, String.valueOf(defaultValue)));
+        Boolean value = getParsed(name, Boolean.class, Boolean::valueOf);
+        return value == null ? defaultValue : value;
     }
 
     public int getInteger(String name, int defaultValue) {
-        return Integer.valueOf(get(name, String.valueOf(defaultValue)));
+        Integer value = getParsed(name, Integer.class, Integer::valueOf);
+        return value == null ? defaultValue : value;
     }
 
     public long getLong(String name, long defaultValue) {
-        return Long.parseLong(get(name, String.valueOf(defaultValue)));
+        Long value = getParsed(name, Long.class, Long::valueOf);
+        return value == null ? defaultValue : value;
     }
 
     public List<Long> getListLong(String name, List<Long> defaultValue) {
-        String values = get(name);
+        List<Long> values = getParsed(name, List.class,
+            text -> Collections.unmodifiableList(Arrays.stream(text.split(",")).map(Long::valueOf).collect(Collectors.toList())));
 
         if (values == null)
             return defaultValue;
-        return Arrays.stream(values.split(",")).map(Long::valueOf).collect(Collectors.toList());
+        return new ArrayList<>(values);
     }
 
     public double getDouble(String name, double defaultValue) {
-        return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+        Double value = getParsed(name, Double.class, Double::valueOf);
+        return value == null ? defaultValue : value;
     }
 
-    public void set(String name, String value) {
-        String oldValue = get(name);
+    /**
+     * Returns the map stored in a single setting by {@link #setMap(String, Map)},
+     * or <code>null</code> if there is none.
+     */
+    public Map<String, String> getMap(String name) {
+        return getParsed(name, Map.class, Settings::parseMap);
+    }
+
+    /**
+     * Returns the names of the settings which are set and start with <code>prefix</code>.
+     */
+    public List<String> getNames(String prefix) {
+        return cache.getNames(home, prefix);
+    }
+
+    private static Map<String, String> parseMap(String text) {
+        // Maps are stored as "version;key=value;key=value", with '\', ';' and '=' escaped by a '\'
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                field.append(c).append(text.charAt(++i));
+            } else if (c == ';') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
 
-        if (oldValue != null && oldValue.equals(value))
+        if (!fields.get(0).equals(MAP_FORMAT_VERSION)) {
+            System.err.println("Warning: Ignoring settings stored in an unknown format: " + text);
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String entry : fields.subList(1, fields.size())) {
+            int separator = indexOfUnescaped(entry, '=');
+            if (separator < 0)
+                continue;
+            map.put(unescape(entry.substring(0, separator)), unescape(entry.substring(separator + 1)));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static int indexOfUnescaped(String text, char c) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\\')
+                i++;
+            else if (text.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace(";", "\\;").replace("=", "\\=");
+    }
+
+    private static String unescape(String text) {
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length())
+                c = text.charAt(++i);
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    public void set(String name, String value) {
+        if (batchValues != null) {
+            batchValues.put(name, value);
             return;
+        }
+        if (write(name, value))
+            home.setModified(true);
+    }
+
+    private boolean write(String name, String value) {
+        if (Objects.equals(cache.getText(home, name), value))
+            return false;
         home.setProperty(PROPERTY_PREFIX + name, value);
-        home.setModified(true);
+        cache.put(name, value);
+        return true;
+    }
+
+    /**
+     * Returns a number that changes whenever any of the home's settings changes.
+     */
+    public long getVersion() {
+        return cache.getVersion();
+    }
+
+    /**
+     * Runs <code>updates</code> with the settings they set only written to the
+     * home once they all succeeded, marking the home as modified once. If
+     * <code>updates</code> throws, none of them is written. Batches may be nested,
+     * in which case the outermost one writes the settings.
+     */
+    public void runInBatch(Runnable updates) {
+        Map<String, String> outerValues = batchValues == null ? null : new LinkedHashMap<>(batchValues);
+        if (batchDepth++ == 0)
+            batchValues = new LinkedHashMap<>();
+        boolean completed = false;
+        try {
+            updates.run();
+            completed = true;
+        } finally {
+            if (!completed && outerValues != null)
+                batchValues = outerValues;
+            if (--batchDepth == 0) {
+                Map<String, String> values = batchValues;
+                batchValues = null;
+                if (completed) {
+                    boolean modified = false;
+                    for (Map.Entry<String, String> entry : values.entrySet())
+                        modified |= write(entry.getKey(), entry.getValue());
+                    if (modified)
+                        home.setModified(true);
+                }
+            }
+        }
     }
 
     public void setBoolean(String name, boolean value) {
@@ -80,4 +316,19 @@ public class Settings {
     public void setDouble(String name, double value) {
         set(name, String.valueOf(value));
     }
+
+    /**
+     * Stores all of <code>value</code> in a single setting, removing the setting
+     * if <code>value</code> is <code>null</code> or empty.
+     */
+    public void setMap(String name, Map<String, String> value) {
+        if (value == null || value.isEmpty()) {
+            set(name, null);
+            return;
+        }
+        StringBuilder text = new StringBuilder(MAP_FORMAT_VERSION);
+        for (Map.Entry<String, String> entry : value.entrySet())
+            text.append(';').append(escape(entry.getKey())).append('=').append(escape(entry.getValue()));
+        set(name, text.toString());
+    }
 };
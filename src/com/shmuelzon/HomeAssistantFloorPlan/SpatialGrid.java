@@ -0,0 +1,96 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * A uniform grid of square cells indexing items by their position. As long as
+ * the cell size is at least the largest distance being looked for, all items
+ * within that distance of a point are found in the 3x3 cells around it.
+ * Items are compared by identity, and moving an item only touches the grid
+ * when it crosses into another cell.
+ */
+public class SpatialGrid<T> {
+    private final double cellSize;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, Long> itemCells = new IdentityHashMap<>();
+
+    public SpatialGrid(double cellSize) {
+        this.cellSize = cellSize > 0 && !Double.isInfinite(cellSize) ? cellSize : 1;
+    }
+
+    private int cellIndex(double coordinate) {
+        return (int)Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(int column, int row) {
+        return ((long)column << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * Adds <code>item</code> at the given position, or moves it there if it
+     * is already in the grid.
+     */
+    public void put(T item, double x, double y) {
+        long key = cellKey(cellIndex(x), cellIndex(y));
+        Long currentKey = itemCells.get(item);
+        if (currentKey != null) {
+            if (currentKey == key)
+                return;
+            removeFromCell(item, currentKey);
+        }
+        itemCells.put(item, key);
+        cells.computeIfAbsent(key, k -> new ArrayList<>()).add(item);
+    }
+
+    public void remove(T item) {
+        Long currentKey = itemCells.remove(item);
+        if (currentKey != null)
+            removeFromCell(item, currentKey);
+    }
+
+    private void removeFromCell(T item, long key) {
+        List<T> cell = cells.get(key);
+        for (int i = 0; i < cell.size(); i++) {
+            if (cell.get(i) == item) {
+                cell.remove(i);
+                break;
+            }
+        }
+        if (cell.isEmpty())
+            cells.remove(key);
+    }
+
+    /**
+     * Calls <code>consumer</code> for every item in the cell holding the given
+     * position and in its eight neighbouring cells. These may be further away
+     * than the cell size, so callers still need to check the actual distance.
+     */
+    public void forEachNear(double x, double y, Consumer<T> consumer) {
+        int column = cellIndex(x);
+        int row = cellIndex(y);
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                List<T> cell = cells.get(cellKey(i, j));
+                if (cell == null)
+                    continue;
+                for (T item : cell)
+                    consumer.accept(item);
+            }
+        }
+    }
+
+    public int size() {
+        return itemCells.size();
+    }
+
+    public void clear() {
+        cells.clear();
+        itemCells.clear();
+    }
+}
@@ -0,0 +1,90 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * Runs writes, e.g. encoding and saving images, on background threads so the
+ * caller can carry on rendering. The number of writes waiting to run is
+ * bounded: once the limit is reached, submitting another write blocks until
+ * one completes, which keeps the memory held by queued images bounded.
+ */
+public class WriteBehindQueue {
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final Queue<Future<?>> writes = new ConcurrentLinkedQueue<>();
+
+    public WriteBehindQueue(int numberOfThreads, int maxPendingWrites) {
+        executor = Executors.newFixedThreadPool(numberOfThreads);
+        capacity = new Semaphore(maxPendingWrites);
+    }
+
+    /**
+     * Queues <code>write</code>, waiting for room in the queue if needed.
+     */
+    public <T> Future<T> submit(Callable<T> write) throws InterruptedException {
+        capacity.acquire();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                try {
+                    return write.call();
+                } finally {
+                    capacity.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            capacity.release();
+            throw e;
+        }
+        writes.add(future);
+        return future;
+    }
+
+    /**
+     * Waits for all the queued writes, throwing the failure of the first one that failed.
+     */
+    public void awaitAll() throws IOException, InterruptedException {
+        Future<?> write;
+        while ((write = writes.poll()) != null)
+            await(write);
+    }
+
+    /**
+     * Waits for <code>write</code>, unwrapping the exception it failed with.
+     */
+    public static <T> T await(Future<T> write) throws IOException, InterruptedException {
+        try {
+            return write.get();
+        } catch (CancellationException e) {
+            throw new InterruptedException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+        writes.clear();
+    }
+}
@@ -0,0 +1,166 @@
+package com.shmuelzon.HomeAssistantFloorPlan;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Streams YAML text to an underlying writer. Text written while indented has
+ * the current indentation prepended to each of its lines, so nested blocks
+ * can be emitted without building and re-indenting intermediate strings.
+ * Formatted text may depend on values that aren't known yet, passed as
+ * {@link Future} arguments. Such text, and everything written after it, is
+ * held back until these values are available, at the latest when flushed.
+ */
+public class YamlWriter implements Closeable, Flushable {
+    private final Writer writer;
+    private final Deque<String> indentations = new ArrayDeque<>();
+    private String indentation = "";
+    private boolean atLineStart = true;
+    private final Deque<Operation> pendingOperations = new ArrayDeque<>();
+
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    private static class Operation {
+        public final BooleanSupplier isReady;
+        public final Action action;
+
+        public Operation(BooleanSupplier isReady, Action action) {
+            this.isReady = isReady;
+            this.action = action;
+        }
+    }
+
+    public YamlWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public YamlWriter write(String text) throws IOException {
+        if (!pendingOperations.isEmpty()) {
+            defer(() -> true, () -> writeNow(text));
+            return this;
+        }
+        writeNow(text);
+        return this;
+    }
+
+    private void writeNow(String text) throws IOException {
+        if (text.isEmpty())
+            return;
+
+        if (indentation.isEmpty()) {
+            writer.write(text);
+        } else {
+            int lineStart = 0;
+            while (lineStart < text.length()) {
+                int lineEnd = text.indexOf('\n', lineStart);
+                lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+                if (atLineStart)
+                    writer.write(indentation);
+                writer.write(text, lineStart, lineEnd - lineStart);
+                atLineStart = text.charAt(lineEnd - 1) == '\n';
+                lineStart = lineEnd;
+            }
+        }
+        atLineStart = text.charAt(text.length() - 1) == '\n';
+    }
+
+    public YamlWriter format(String format, Object... args) throws IOException {
+        boolean hasFutures = false;
+        for (Object arg : args)
+            hasFutures |= arg instanceof Future;
+        if (!hasFutures)
+            return write(String.format(Locale.US, format, args));
+
+        defer(() -> {
+            for (Object arg : args) {
+                if (arg instanceof Future && !((Future<?>)arg).isDone())
+                    return false;
+            }
+            return true;
+        }, () -> {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++)
+                values[i] = arg(args[i]);
+            writeNow(String.format(Locale.US, format, values));
+        });
+        return this;
+    }
+
+    private static Object arg(Object arg) throws IOException {
+        if (!(arg instanceof Future))
+            return arg;
+        try {
+            return WriteBehindQueue.await((Future<?>)arg);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void defer(BooleanSupplier isReady, Action action) throws IOException {
+        pendingOperations.add(new Operation(isReady, action));
+        runPendingOperations(false);
+    }
+
+    private void runPendingOperations(boolean wait) throws IOException {
+        while (!pendingOperations.isEmpty() && (wait || pendingOperations.peek().isReady.getAsBoolean()))
+            pendingOperations.poll().action.run();
+    }
+
+    /**
+     * Indents all lines written from now on by additional <code>spaces</code>,
+     * until the matching call to {@link #unindent()}.
+     */
+    public void indent(int spaces) throws IOException {
+        if (!pendingOperations.isEmpty()) {
+            defer(() -> true, () -> indentNow(spaces));
+            return;
+        }
+        indentNow(spaces);
+    }
+
+    private void indentNow(int spaces) {
+        indentations.push(indentation);
+        StringBuilder newIndentation = new StringBuilder(indentation);
+        for (int i = 0; i < spaces; i++)
+            newIndentation.append(' ');
+        indentation = newIndentation.toString();
+    }
+
+    public void unindent() throws IOException {
+        if (!pendingOperations.isEmpty()) {
+            defer(() -> true, () -> indentation = indentations.pop());
+            return;
+        }
+        indentation = indentations.pop();
+    }
+
+    /**
+     * Writes all the text held back, waiting for the values it depends on.
+     */
+    @Override
+    public void flush() throws IOException {
+        runPendingOperations(true);
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            runPendingOperations(true);
+        } finally {
+            writer.close();
+        }
+    }
+}